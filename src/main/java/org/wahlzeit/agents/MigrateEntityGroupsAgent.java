@@ -0,0 +1,56 @@
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.UserManager;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+
+import java.util.logging.Logger;
+
+/**
+ * An agent that moves photos, tags, and clients from the former application root to their entity groups. Each run
+ * moves batches until nothing is left or its time is up, so that the migration happens gradually while the
+ * application keeps serving requests.
+ */
+public class MigrateEntityGroupsAgent extends Agent {
+
+	public static final String NAME = "migrateEntityGroups";
+
+	/**
+	 *
+	 */
+	public static final int BATCH_SIZE = 200;
+
+	/**
+	 * Time (in milliseconds) after which a run stops starting new batches
+	 */
+	public static final long MAX_RUN_TIME = 20 * 1000;
+
+	private static final Logger log = Logger.getLogger(MigrateEntityGroupsAgent.class.getName());
+
+	public MigrateEntityGroupsAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		if (!ObjectManager.hasSeveralEntityGroups()) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		int noMovedEntities = 0;
+		int noMovedInBatch;
+		do {
+			noMovedInBatch = PhotoManager.getInstance().migrateEntityGroups(BATCH_SIZE);
+			noMovedInBatch += UserManager.getInstance().migrateEntityGroups(BATCH_SIZE);
+			noMovedEntities += noMovedInBatch;
+		} while (noMovedInBatch > 0 && System.currentTimeMillis() - startTime < MAX_RUN_TIME);
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("moved entities", noMovedEntities).toString());
+	}
+
+}
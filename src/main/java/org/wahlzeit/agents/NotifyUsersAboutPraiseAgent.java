@@ -4,7 +4,6 @@ import com.google.apphosting.api.ApiProxy;
 import org.wahlzeit.model.LanguageConfigs;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
-import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
@@ -16,7 +15,6 @@ import org.wahlzeit.services.mailing.EmailServiceManager;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -38,13 +36,13 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 	 * Notifies all users that want to get informed if their photos have been praised.
 	 */
 	protected void doRun() {
-		Map<PhotoId, Photo> photoCache = PhotoManager.getInstance().getPhotoCache();
-		Collection<Photo> photos = photoCache.values();
+		PhotoManager photoManager = PhotoManager.getInstance();
 
 		ArrayList<Photo> arrayListOfPhotos;
 		HashMap<String, ArrayList<Photo>> ownerIdPhotosMap = new HashMap<String, ArrayList<Photo>>();
-		for (Photo photo : photos) {
-			if (photo != null && photo.isVisible() && photo.hasNewPraise()) {
+		for (int id = photoManager.getNextVisiblePhotoId(0); id >= 0; id = photoManager.getNextVisiblePhotoId(id + 1)) {
+			Photo photo = photoManager.getCachedPhoto(id);
+			if (photo != null && photo.hasNewPraise()) {
 				String ownerId = photo.getOwnerId();
 				if (ownerId != null) {
 					log.config(LogBuilder.createSystemMessage().addParameter("ownerId", ownerId).toString());
@@ -58,7 +56,7 @@ public class NotifyUsersAboutPraiseAgent extends Agent {
 					arrayListOfPhotos.add(photo);
 					ownerIdPhotosMap.put(ownerId, arrayListOfPhotos);
 					photo.setNoNewPraise();
-					PhotoManager.getInstance().savePhoto(photo);
+					photoManager.schedulePhotoSave(photo);
 				}
 			}
 		}
@@ -20,7 +20,6 @@
 
 package org.wahlzeit.handlers;
 
-import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
@@ -74,7 +73,7 @@ public class AdminUserPhotoFormHandler extends AbstractWebFormHandler {
 		String status = us.getAndSaveAsString(args, Photo.STATUS);
 		photo.setStatus(PhotoStatus.getFromString(status));
 
-		AsyncTaskExecutor.savePhotoAsync(id);
+		PhotoManager.getInstance().schedulePhotoSave(photo);
 
 		log.info(LogBuilder.createUserMessage().
 				addAction("AdminUserPhoto").
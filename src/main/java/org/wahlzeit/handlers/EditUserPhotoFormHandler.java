@@ -20,7 +20,6 @@
 
 package org.wahlzeit.handlers;
 
-import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
@@ -103,7 +102,7 @@ public class EditUserPhotoFormHandler extends AbstractWebFormHandler {
 		PhotoStatus ps = photo.getStatus().asInvisible(isInvisible);
 		photo.setStatus(ps);
 
-		AsyncTaskExecutor.savePhotoAsync(id);
+		PhotoManager.getInstance().schedulePhotoSave(photo);
 
 		log.info(LogBuilder.createUserMessage().
 				addAction("EditUserPhoto").
@@ -20,7 +20,6 @@
 
 package org.wahlzeit.handlers;
 
-import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.FlagReason;
 import org.wahlzeit.model.ModelConfig;
@@ -100,7 +99,7 @@ public class FlagPhotoFormHandler extends AbstractWebFormHandler {
 
 		Photo photo = PhotoManager.getInstance().getPhoto(id);
 		photo.setStatus(photo.getStatus().asFlagged(true));
-		AsyncTaskExecutor.savePhotoAsync(id);
+		PhotoManager.getInstance().schedulePhotoSave(photo);
 
 		PhotoCase photoCase = new PhotoCase(photo);
 		photoCase.setFlagger(flagger);
@@ -25,6 +25,7 @@ import org.wahlzeit.model.Client;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.utils.StringUtil;
@@ -83,7 +84,10 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 				int value = Integer.parseInt(praise);
 				photo.addToPraise(value);
 				client.addPraisedPhotoId(photo.getId());
+				UserManager.getInstance().scheduleClientSave(client);
+				us.addPraisedPhoto(photo);
 				us.addProcessedPhoto(photo);
+				PhotoManager.getInstance().schedulePhotoSave(photo);
 				wasPraised = true;
 			}
 		}
@@ -29,6 +29,7 @@ import org.wahlzeit.model.PhotoId;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.Tags;
+import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.webparts.WebPart;
@@ -66,6 +67,7 @@ public class ShowPhotoPageHandler extends AbstractWebPageHandler implements WebF
 			String skippedPhotoIdString = us.getAsString(args, "prior");
 			PhotoId skippedPhotoId = PhotoId.getIdFromString(skippedPhotoIdString);
 			us.getClient().addSkippedPhotoId(skippedPhotoId);
+			UserManager.getInstance().scheduleClientSave(us.getClient());
 			us.getPhotoFilter().addSkippedPhotoId(skippedPhotoId);
 		}
 
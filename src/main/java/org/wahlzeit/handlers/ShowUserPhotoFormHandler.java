@@ -104,16 +104,16 @@ public class ShowUserPhotoFormHandler extends AbstractWebFormHandler {
 		} else if (us.isFormType(args, "select")) {
 			user.setUserPhoto(photo);
 			us.setClient(user);
-			userManager.saveClient(user);
+			userManager.scheduleClientSave(user);
 			log.info(LogBuilder.createUserMessage().
 					addAction("Select user photo").
 					addParameter("Photo", id).toString());
 		} else if (us.isFormType(args, "delete")) {
 			photo.setStatus(photo.getStatus().asDeleted(true));
-			PhotoManager.getInstance().savePhoto(photo);
+			PhotoManager.getInstance().schedulePhotoSave(photo);
 			if (user.getUserPhoto() == photo) {
 				user.setUserPhoto(null);
-				userManager.saveClient(user);
+				userManager.scheduleClientSave(user);
 			}
 			log.info(LogBuilder.createUserMessage().
 					addAction("Deselect user photo").toString());
@@ -21,7 +21,6 @@
 package org.wahlzeit.handlers;
 
 import com.google.appengine.api.images.Image;
-import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.ModelConfig;
 import org.wahlzeit.model.Photo;
@@ -90,10 +89,10 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 
 			us.setTwoLineMessage(config.getPhotoUploadSucceeded(), config.getKeepGoing());
 			log.config(LogBuilder.createSystemMessage().
-					addAction("Calling async task to save Photo").
+					addAction("Schedule Photo save").
 					addParameter("ID", photo.getId().asString()).toString());
 
-			AsyncTaskExecutor.savePhotoAsync(photo.getId().asString());
+			pm.schedulePhotoSave(photo);
 		} catch (Exception ex) {
 			log.warning(LogBuilder.createSystemMessage().addException("uploading photo failed", ex).toString());
 			us.setMessage(config.getPhotoUploadFailed());
@@ -29,6 +29,7 @@ import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.WriteBehindQueue;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
 import java.util.logging.Logger;
@@ -103,6 +104,9 @@ public class ServiceMain extends ModelMain {
 		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
 		configureLanguageModels();
 
+		log.config(LogBuilder.createSystemMessage().addAction("Start write-behind queue").toString());
+		WriteBehindQueue.getInstance().start();
+
 		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
 	}
 
@@ -220,6 +224,10 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
+		log.config(LogBuilder.createSystemMessage().addAction("Drain write-behind queue").toString());
+		WriteBehindQueue.getInstance().stop();
+		WriteBehindQueue.getInstance().drain();
+
 		super.shutDown();
 	}
 
@@ -21,6 +21,7 @@
 package org.wahlzeit.model;
 
 import org.wahlzeit.services.DataObject;
+import org.wahlzeit.services.IdSequence;
 
 /**
  * A case is a user complaint, most notably about an inappropriate photo.
@@ -33,25 +34,48 @@ public abstract class Case extends DataObject {
 	 */
 	protected static CaseId lastCaseId = CaseId.NULL_ID;
 
+	/**
+	 * Number of ids that are reserved at once
+	 */
+	public static final int ID_BLOCK_SIZE = 20;
+
+	/**
+	 *
+	 */
+	protected static final IdSequence idSequence = new IdSequence(ID_BLOCK_SIZE);
+
 	/**
 	 * @methodtype get
 	 */
 	public static synchronized CaseId getLastCaseId() {
+		if (idSequence.getLastIssuedId() > lastCaseId.asInt()) {
+			lastCaseId = new CaseId((int) idSequence.getLastIssuedId());
+		}
 		return lastCaseId;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public static synchronized void setLastCaseId(CaseId newId) {
+	public static void setLastCaseId(CaseId newId) {
+		setLastCaseId(newId, null);
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * New ids are handed out from blocks of the source, or from local blocks if it is null.
+	 */
+	public static synchronized void setLastCaseId(CaseId newId, IdSequence.BlockSource idBlockSource) {
 		lastCaseId = newId;
+		idSequence.reset(newId.asInt(), idBlockSource);
 	}
 
 	/**
 	 * @methodtype idiom
 	 */
-	public static synchronized CaseId getNextCaseId() {
-		return lastCaseId = lastCaseId.getNextId();
+	public static CaseId getNextCaseId() {
+		return new CaseId((int) idSequence.getNextId());
 	}
 
 }
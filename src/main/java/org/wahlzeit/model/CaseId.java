@@ -20,10 +20,17 @@
 
 package org.wahlzeit.model;
 
+import java.io.Serializable;
+
 /**
  * Simple value object for case ids.
  */
-public class CaseId {
+public class CaseId implements Serializable {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -8510871317677561604L;
 
 	/**
 	 *
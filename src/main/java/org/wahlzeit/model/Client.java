@@ -21,17 +21,20 @@
 package org.wahlzeit.model;
 
 import com.google.appengine.api.datastore.Key;
+import com.googlecode.objectify.annotation.AlsoLoad;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.annotation.Serialize;
 import org.wahlzeit.services.EmailAddress;
+import org.wahlzeit.services.EntityGroupMember;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.utils.IntBitmap;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -39,7 +42,7 @@ import java.util.List;
  * administrator clients.
  */
 @Entity
-public abstract class Client implements Serializable, Persistent {
+public abstract class Client implements Serializable, Persistent, EntityGroupMember {
 
 	public static final String ID = "id";
 	public static final String NICK_NAME = "nickName";
@@ -72,9 +75,19 @@ public abstract class Client implements Serializable, Persistent {
 
 	protected PhotoSize photoSize = PhotoSize.MEDIUM;
 
-	protected List<PhotoId> praisedPhotoIds = new ArrayList<PhotoId>();
+	/**
+	 * Ids of praised and skipped photos, by PhotoId.asInt(); stored serialized, as bitmaps are much smaller than lists
+	 */
+	@Serialize
+	protected IntBitmap praisedPhotos = new IntBitmap();
 
-	protected List<PhotoId> skippedPhotoIds = new ArrayList<PhotoId>();
+	@Serialize
+	protected IntBitmap skippedPhotos = new IntBitmap();
+
+	/**
+	 *
+	 */
+	protected PhotoId lastPraisedPhotoId = null;
 
 
 	/**
@@ -90,6 +103,7 @@ public abstract class Client implements Serializable, Persistent {
 	protected void initialize(String id, String nickName, EmailAddress emailAddress, AccessRights accessRights,
 							  Client previousClient) {
 		this.id = id;
+		this.parent = ObjectManager.getEntityGroupKey(getShardingValue());
 		this.nickName = nickName;
 		this.accessRights = accessRights;
 		this.emailAddress = emailAddress;
@@ -98,6 +112,7 @@ public abstract class Client implements Serializable, Persistent {
 		if (previousClient != null) {
 			this.setLanguage(previousClient.getLanguage());
 			this.setPraisedPhotoIds(previousClient.getPraisedPhotoIds());
+			this.lastPraisedPhotoId = previousClient.lastPraisedPhotoId;
 			this.setPhotoSize(previousClient.getPhotoSize());
 		}
 
@@ -113,6 +128,30 @@ public abstract class Client implements Serializable, Persistent {
 		return id;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public Object getShardingValue() {
+		return id;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public Key getEntityGroupKey() {
+		return parent;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@Override
+	public void setEntityGroupKey(Key newEntityGroupKey) {
+		parent = newEntityGroupKey;
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -196,15 +235,34 @@ public abstract class Client implements Serializable, Persistent {
 	/**
 	 *
 	 */
-	public void incWriteCount() {
+	public synchronized void incWriteCount() {
 		writeCount++;
 	}
 
 	/**
 	 *
 	 */
-	public void resetWriteCount() {
+	public synchronized void resetWriteCount() {
+		writeCount = 0;
+	}
+
+	/**
+	 *
+	 */
+	public synchronized int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 *
+	 */
+	public synchronized boolean resetWriteCount(int expectedWriteCount) {
+		if (writeCount != expectedWriteCount) {
+			return false;
+		}
+
 		writeCount = 0;
+		return true;
 	}
 
 	/**
@@ -274,69 +332,115 @@ public abstract class Client implements Serializable, Persistent {
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getPraisedPhotoIds() {
-		return praisedPhotoIds;
+	public IntBitmap getPraisedPhotoIds() {
+		return praisedPhotos;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setPraisedPhotoIds(List<PhotoId> praisedPhotoIds) {
-		this.praisedPhotoIds = praisedPhotoIds;
+	public void setPraisedPhotoIds(IntBitmap praisedPhotoIds) {
+		this.praisedPhotos = praisedPhotoIds.copy();
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPraisedPhotoId(PhotoId photoId) {
+		return praisedPhotos.contains(photoId.asInt());
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addPraisedPhotoId(PhotoId ratedPhotoId) {
-		praisedPhotoIds.add(ratedPhotoId);
+		praisedPhotos.add(ratedPhotoId.asInt());
+		lastPraisedPhotoId = ratedPhotoId;
 		removeSkippedPhotoId(ratedPhotoId);
+		incWriteCount();
 	}
 
 	/**
 	 * @methodtype get
+	 *
+	 * Returns the photo praised last, or null if there is none that is still visible. If the photo praised last is no
+	 * longer visible, the praised photo with the highest id that is still visible is returned instead.
 	 */
 	public Photo getLastPraisedPhoto() {
-		int indexOfLastPraisedPhoto = praisedPhotoIds.size() - 1;
-		Photo result = null;
-		while (indexOfLastPraisedPhoto >= 0 && result == null) {
-			PhotoId lastPraisedPhotoId = praisedPhotoIds.get(indexOfLastPraisedPhoto);
-			result = PhotoManager.getInstance().getPhoto(lastPraisedPhotoId);
-			if (!result.isVisible()) {
-				result = null;
-				indexOfLastPraisedPhoto--;
+		PhotoManager photoManager = PhotoManager.getInstance();
+		if (lastPraisedPhotoId != null) {
+			Photo result = photoManager.getPhoto(lastPraisedPhotoId);
+			if (result != null && result.isVisible()) {
+				return result;
+			}
+		}
+
+		for (int rank = praisedPhotos.getCardinality() - 1; rank >= 0; rank--) {
+			int id = praisedPhotos.select(rank);
+			if (photoManager.isVisiblePhoto(id)) {
+				Photo result = photoManager.getPhoto(id);
+				if (result != null && result.isVisible()) {
+					return result;
+				}
 			}
 		}
-		return result;
+		return null;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
-		return skippedPhotoIds;
+	public IntBitmap getSkippedPhotoIds() {
+		return skippedPhotos;
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
-		this.skippedPhotoIds = skippedPhotoIds;
+	public void setSkippedPhotoIds(IntBitmap skippedPhotoIds) {
+		this.skippedPhotos = skippedPhotoIds.copy();
+		incWriteCount();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void removeSkippedPhotoId(PhotoId skippedPhotoIdToRemove) {
-		skippedPhotoIds.remove(skippedPhotoIdToRemove);
+		if (skippedPhotos.remove(skippedPhotoIdToRemove.asInt())) {
+			incWriteCount();
+		}
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
+		if (skippedPhotos.add(skippedPhotoId.asInt())) {
+			incWriteCount();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Takes over the praised photos of a client that was stored with a list of PhotoIds.
+	 */
+	protected void importPraisedPhotoIds(@AlsoLoad("praisedPhotoIds") List<PhotoId> praisedPhotoIds) {
+		for (PhotoId photoId : praisedPhotoIds) {
+			praisedPhotos.add(photoId.asInt());
+			lastPraisedPhotoId = photoId;
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Takes over the skipped photos of a client that was stored with a list of PhotoIds.
+	 */
+	protected void importSkippedPhotoIds(@AlsoLoad("skippedPhotoIds") List<PhotoId> skippedPhotoIds) {
+		for (PhotoId photoId : skippedPhotoIds) {
+			skippedPhotos.add(photoId.asInt());
 		}
 	}
 }
@@ -1,9 +1,11 @@
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.IdSequence;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +25,16 @@ public abstract class ClientManager extends ObjectManager {
 	 */
 	protected static Long lastClientId = 0L;
 
+	/**
+	 * Number of client ids that are reserved at once
+	 */
+	public static final int ID_BLOCK_SIZE = 100;
+
+	/**
+	 *
+	 */
+	protected static final IdSequence idSequence = new IdSequence(ID_BLOCK_SIZE);
+
 	/**
 	 * Maps IDs to user
 	 */
@@ -141,6 +153,15 @@ public abstract class ClientManager extends ObjectManager {
 		updateObject(client);
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Saves the client later via the write-behind queue.
+	 */
+	public void scheduleClientSave(Client client) {
+		scheduleObjectUpdate(client);
+	}
+
 
 	// save methods ----------------------------------------------------------------------------------------------------
 
@@ -157,7 +178,14 @@ public abstract class ClientManager extends ObjectManager {
 	 * @methodtype command
 	 */
 	public void saveClients() {
-		updateObjects(idClientMap.values());
+		saveClients(idClientMap.values());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void saveClients(Collection<? extends Client> clients) {
+		updateObjects(clients);
 	}
 
 
@@ -166,22 +194,55 @@ public abstract class ClientManager extends ObjectManager {
 	/**
 	 * @methodtype get
 	 */
-	public Long getLastClientId() {
-		return lastClientId;
+	public synchronized Long getLastClientId() {
+		return Math.max(lastClientId, idSequence.getLastIssuedId());
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public synchronized void setLastClientId(Long newId) {
-		lastClientId = newId;
+	public void setLastClientId(Long newId) {
+		setLastClientId(newId, null);
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * New ids are handed out from blocks of the source, or from local blocks if it is null.
+	 */
+	public synchronized void setLastClientId(Long newId, IdSequence.BlockSource idBlockSource) {
+		lastClientId = (newId != null) ? newId : 0L;
+		idSequence.reset(lastClientId, idBlockSource);
 	}
 
 	/**
 	 * @methodtype get
+	 *
+	 * Hands out the next id of the reserved block without locking
 	 */
-	public synchronized Long getNextClientId() {
-		return ++lastClientId;
+	public Long getNextClientId() {
+		return idSequence.getNextId();
+	}
+
+
+	// entity group methods ------------------------------------------------------------------------------------------
+
+	/**
+	 * @methodtype command
+	 *
+	 * Moves at most batchSize clients from the former application root to their entity groups and returns the number
+	 * of moved clients. Known clients get their new parent, so that later writes do not recreate them below the old
+	 * one.
+	 */
+	public int migrateEntityGroups(int batchSize) {
+		List<Client> movedClients = moveToEntityGroups(Client.class, batchSize);
+		for (Client client : movedClients) {
+			Client knownClient = idClientMap.get(client.getId());
+			if (knownClient != null && knownClient != client) {
+				knownClient.setEntityGroupKey(client.getEntityGroupKey());
+			}
+		}
+		return movedClients.size();
 	}
 
 
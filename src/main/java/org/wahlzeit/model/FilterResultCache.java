@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * A FilterResultCache holds the ids of the visible photos that match a list of filter conditions, so that sessions
+ * with the same filter, e.g. guests without any, share one result instead of computing it each. As photos are cached
+ * and change their tags, owner, or status, the results they enter or leave are dropped and computed again on their
+ * next use; copying a result per update would cost as much as computing it, e.g. for all photos.
+ *
+ * Like the bitmaps of the TagIndex, results are never modified and must not be modified by callers. Results are
+ * computed without holding the lock of the cache, so that photo updates never wait for them, and the least recently
+ * used results are evicted once the cache is full.
+ */
+public class FilterResultCache {
+
+	private static final Logger log = Logger.getLogger(FilterResultCache.class.getName());
+
+	/**
+	 * Number of results beyond which the least recently used ones are evicted, to bound its memory
+	 */
+	public static final int DEFAULT_MAX_NO_RESULTS = 256;
+
+	/**
+	 *
+	 */
+	protected final TagIndex tagIndex;
+
+	/**
+	 * Photo ids by normalized filter conditions, in the order of their last use; the bitmaps are never modified once
+	 * put into the map. Guarded by the lock of the cache.
+	 */
+	protected final Map<List<String>, IntBitmap> results = new LinkedHashMap<List<String>, IntBitmap>(16, 0.75f, true) {
+		/**
+		 *
+		 */
+		private static final long serialVersionUID = 42L; // any one does; class never serialized
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<String>, IntBitmap> eldest) {
+			return size() > maxNoResults;
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected int maxNoResults = DEFAULT_MAX_NO_RESULTS;
+
+	/**
+	 * Number of updates so far, to tell whether photos changed while a result was computed; guarded by the lock
+	 */
+	protected long noUpdates = 0;
+
+	/**
+	 *
+	 */
+	public FilterResultCache(TagIndex tagIndex) {
+		this.tagIndex = tagIndex;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void setMaxNoResults(int newMaxNoResults) {
+		maxNoResults = newMaxNoResults;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoResults() {
+		return results.size();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the ids of the visible photos that match all filter conditions, or of all visible photos if there are
+	 * none. The order of conditions and duplicates do not matter.
+	 */
+	public IntBitmap getPhotoIds(List<String> filterConditions) {
+		List<String> conditions = asNormalizedConditions(filterConditions);
+		long startNoUpdates;
+		synchronized (this) {
+			IntBitmap result = results.get(conditions);
+			if (result != null) {
+				return result;
+			}
+			startNoUpdates = noUpdates;
+		}
+
+		IntBitmap result = doGetPhotoIds(conditions);
+
+		synchronized (this) {
+			IntBitmap current = results.get(conditions);
+			if (current != null) {
+				return current;
+			}
+
+			if (noUpdates == startNoUpdates) {
+				results.put(conditions, result);
+			} else {
+				log.config(LogBuilder.createSystemMessage().
+						addMessage("photos changed while computing filter result, not cached").toString());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected List<String> asNormalizedConditions(List<String> filterConditions) {
+		if (filterConditions.isEmpty()) {
+			return Collections.singletonList(TagIndex.ALL_PHOTOS);
+		}
+
+		return new ArrayList<String>(new TreeSet<String>(filterConditions));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Computes the result without holding the lock. It is only cached if no update came in meanwhile; an update that
+	 * comes in after it has been cached drops it like any other result.
+	 */
+	protected IntBitmap doGetPhotoIds(List<String> conditions) {
+		IntBitmap matchingPhotoIds = TagQuery.allOf(conditions).evaluate(tagIndex);
+		return IntBitmap.and(matchingPhotoIds, PhotoManager.getInstance().getVisiblePhotoIds());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void updatePhoto(Photo photo) {
+		updatePhotos(Collections.singletonList(photo));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Drops each cached result that one of the photos enters or leaves, depending on whether it is visible and matches
+	 * its conditions now; is to be called after the TagIndex has been updated for the photos.
+	 */
+	public synchronized void updatePhotos(Collection<Photo> photos) {
+		if (photos.isEmpty()) {
+			return;
+		}
+
+		noUpdates++;
+
+		Iterator<Map.Entry<List<String>, IntBitmap>> iterator = results.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<List<String>, IntBitmap> entry = iterator.next();
+			for (Photo photo : photos) {
+				if (isMatchingPhoto(photo, entry.getKey()) != entry.getValue().contains(photo.getId().asInt())) {
+					iterator.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isMatchingPhoto(Photo photo, List<String> conditions) {
+		Set<String> indexedConditions = photo.getIndexedConditions();
+		return (indexedConditions != null) && photo.isVisible() && indexedConditions.containsAll(conditions);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		results.clear();
+	}
+
+}
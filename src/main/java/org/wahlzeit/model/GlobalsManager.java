@@ -2,12 +2,13 @@ package org.wahlzeit.model;
 
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.services.IdSequence;
+import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.servlets.AbstractServlet;
 
 import java.util.logging.Logger;
 
-import static org.wahlzeit.services.OfyService.ofy;
 
 /**
  * Manager that cares about the global variables. It is used from the outside by the following two methods:
@@ -27,7 +28,15 @@ public class GlobalsManager extends ObjectManager {
 	private static GlobalsManager instance = new GlobalsManager();
 
 	/**
-	 * @methodtype command Loads all global variables and stores them in their corresponding classes.
+	 * Kinds of ids that are reserved in blocks via the globals
+	 */
+	public enum IdKind {
+		PHOTO, CLIENT, CASE
+	}
+
+	/**
+	 * @methodtype command Loads all global variables and stores them in their corresponding classes. From then on,
+	 * photo, client and case ids are handed out from blocks reserved in the globals.
 	 */
 	public void loadGlobals() {
 		initGlobals();
@@ -39,12 +48,67 @@ public class GlobalsManager extends ObjectManager {
 		});
 		log.info(globals.asString());
 
-		UserManager.getInstance().setLastClientId(globals.getLastUserId());
-		PhotoId.setCurrentIdFromInt(globals.getLastPhotoId());
-		Case.setLastCaseId(new CaseId(globals.getLastCaseId()));
+		UserManager.getInstance().setLastClientId(globals.getLastUserId(), getIdBlockSource(IdKind.CLIENT));
+		PhotoId.setCurrentIdFromInt(globals.getLastPhotoId(), getIdBlockSource(IdKind.PHOTO));
+		Case.setLastCaseId(new CaseId(globals.getLastCaseId()), getIdBlockSource(IdKind.CASE));
 		AbstractServlet.setLastSessionId(globals.getLastSessionId());
 	}
 
+	/**
+	 * @methodtype factory
+	 */
+	public IdSequence.BlockSource getIdBlockSource(final IdKind kind) {
+		return new IdSequence.BlockSource() {
+			@Override
+			public long reserveBlock(int blockSize) {
+				return reserveIds(kind, blockSize);
+			}
+		};
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reserves the given number of ids of the kind with one transactional update of the globals and returns the first
+	 * reserved id.
+	 */
+	public long reserveIds(final IdKind kind, final int noIds) {
+		long result = ObjectifyService.run(new Work<Long>() {
+			@Override
+			public Long run() {
+				return getBackend().transact(new Work<Long>() {
+					@Override
+					public Long run() {
+						Globals globals = readObject(Globals.class, Globals.DEAULT_ID);
+						long lastId;
+						switch (kind) {
+							case PHOTO:
+								lastId = globals.getLastPhotoId();
+								globals.setLastPhotoId((int) (lastId + noIds));
+								break;
+							case CLIENT:
+								lastId = (globals.getLastUserId() != null) ? globals.getLastUserId() : 0;
+								globals.setLastUserId(lastId + noIds);
+								break;
+							default:
+								lastId = globals.getLastCaseId();
+								globals.setLastCaseId((int) (lastId + noIds));
+						}
+						writeObject(globals);
+						return lastId + 1;
+					}
+				});
+			}
+		});
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("reserve ids").
+				addParameter("kind", kind).
+				addParameter("first id", result).
+				addParameter("number of ids", noIds).toString());
+		return result;
+	}
+
 	/**
 	 * @methodtype wrapper
 	 */
@@ -61,7 +125,7 @@ public class GlobalsManager extends ObjectManager {
 		return ObjectifyService.run(new Work<Boolean>() {
 			@Override
 			public Boolean run() {
-				return ofy().load().type(Globals.class).first().now() != null;
+				return readObject(Globals.class, Globals.DEAULT_ID) != null;
 			}
 		});
 	}
@@ -85,28 +149,43 @@ public class GlobalsManager extends ObjectManager {
 				globals.setLastPhotoId(0);
 				globals.setLastCaseId(0);
 				globals.setLastSessionId(0);
-				ofy().save().entity(globals).now();
+				writeObject(globals);
 				return null;
 			}
 		});
 	}
 
 	/**
-	 * @methodtype command Saves all global variables.
+	 * @methodtype command Saves all global variables. Ids are never lowered, as other instances may have reserved
+	 * higher ones in the meantime.
 	 */
 	public synchronized void saveGlobals() {
-		final Globals globals = new Globals();
-		globals.setLastUserId(UserManager.getInstance().getLastClientId());
-		globals.setLastPhotoId(PhotoId.getCurrentIdAsInt());
-		globals.setLastCaseId(Case.getLastCaseId().asInt());
-		globals.setLastSessionId(AbstractServlet.getLastSessionId());
-		log.info(globals.asString());
+		final Long lastUserId = UserManager.getInstance().getLastClientId();
+		final int lastPhotoId = PhotoId.getCurrentIdAsInt();
+		final int lastCaseId = Case.getLastCaseId().asInt();
+		final int lastSessionId = AbstractServlet.getLastSessionId();
 
 		ObjectifyService.run(new Work<Void>() {
 			@Override
 			public Void run() {
-				writeObject(globals);
-				return null;
+				return getBackend().transact(new Work<Void>() {
+					@Override
+					public Void run() {
+						Globals globals = readObject(Globals.class, Globals.DEAULT_ID);
+						if (globals == null) {
+							globals = new Globals();
+						}
+						if (globals.getLastUserId() == null || globals.getLastUserId() < lastUserId) {
+							globals.setLastUserId(lastUserId);
+						}
+						globals.setLastPhotoId(Math.max(globals.getLastPhotoId(), lastPhotoId));
+						globals.setLastCaseId(Math.max(globals.getLastCaseId(), lastCaseId));
+						globals.setLastSessionId(Math.max(globals.getLastSessionId(), lastSessionId));
+						log.info(globals.asString());
+						writeObject(globals);
+						return null;
+					}
+				});
 			}
 		});
 	}
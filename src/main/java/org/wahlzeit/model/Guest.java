@@ -35,16 +35,24 @@ public class Guest extends Client {
 	public static final String GUEST_PREFIX = "guest#";
 
 	/**
+	 * For Objectify to load guests; does not use up a client id
+	 */
+	protected Guest() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype factory
 	 *
+	 * Creates a guest with the next client id.
 	 */
-	public Guest() {
-		String userId = GUEST_PREFIX + UserManager.getInstance().getNextClientId();
-		initialize(userId, userId, EmailAddress.EMPTY, AccessRights.GUEST, null);
+	public static Guest createGuest() {
+		return new Guest(null);
 	}
 
 	/**
 	 * For logging out a user, some settings like the language or the photo size should not change, therefore the
-	 * previousClient is used so set these basic settings in the new <@link>Guest</@link>.
+	 * previousClient is used so set these basic settings in the new <@link>Guest</@link>. It may be null.
 	 */
 	public Guest(Client previousClient) {
 		String userId = GUEST_PREFIX + UserManager.getInstance().getNextClientId();
@@ -37,16 +37,16 @@ public class InstrumentPhoto extends Photo {
 	 * @param name
 	 */
 	public InstrumentPhoto(String name) {
-		super();
-		this.name = name;
+		this(PhotoId.getNextId(), name);
 	}
 
 	/**
 	 * @methodType constructor
-	 * @methodProperties convenience
+	 *
+	 * For Objectify to load photos; does not use up an id
 	 */
-	public InstrumentPhoto() {
-		this("");
+	protected InstrumentPhoto() {
+		this.name = "";
 	}
 
 	/**
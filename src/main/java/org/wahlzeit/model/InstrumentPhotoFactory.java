@@ -7,7 +7,7 @@ public class InstrumentPhotoFactory extends PhotoFactory {
 	 */
 	@Override
 	public Photo createPhoto() {
-		return new InstrumentPhoto();
+		return new InstrumentPhoto(PhotoId.getNextId());
 	}
 
 	/**
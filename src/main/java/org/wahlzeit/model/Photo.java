@@ -20,7 +20,6 @@
 
 package org.wahlzeit.model;
 
-import com.google.api.client.util.ArrayMap;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.annotation.Entity;
@@ -29,16 +28,20 @@ import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
+import org.wahlzeit.services.EntityGroupMember;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A photo represents a user-provided (uploaded) photo.
  */
 @Entity
-public class Photo extends DataObject {
+public class Photo extends DataObject implements EntityGroupMember {
 
 	/**
 	 *
@@ -53,6 +56,15 @@ public class Photo extends DataObject {
 	public static final String KEYWORDS = "keywords";
 
 	public static final String TAGS = "tags";
+
+	/**
+	 * Aspects of a photo that are tracked for dirtiness, see DataObject.incWriteCount(int)
+	 */
+	public static final int PRAISE_ASPECT = 1;
+	public static final int STATUS_ASPECT = 2;
+	public static final int TAGS_ASPECT = 4;
+	public static final int IMAGES_ASPECT = 8;
+	public static final int OWNER_ASPECT = 16;
 	public static final String OWNER_ID = "ownerId";
 
 	public static final String STATUS = "status";
@@ -76,10 +88,17 @@ public class Photo extends DataObject {
 
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL) Images are
-	 * pre-computed in these sizes to optimize bandwidth when requested.
+	 * pre-computed in these sizes to optimize bandwidth when requested. Concurrent, as images are removed by the
+	 * thread that saves the photo while requests read them.
+	 */
+	@Ignore
+	transient protected ConcurrentMap<PhotoSize, Image> images = new ConcurrentHashMap<PhotoSize, Image>();
+
+	/**
+	 * Told about changes of the tags, owner, or status; set by the PhotoManager while the photo is cached
 	 */
 	@Ignore
-	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
+	transient protected volatile PhotoListener listener = null;
 
 	/**
 	 *
@@ -100,6 +119,18 @@ public class Photo extends DataObject {
 	 */
 	protected Tags tags = Tags.EMPTY_TAGS;
 
+	/**
+	 * Tag entities of this photo as last persisted, by tag text; null if not known yet
+	 */
+	@Ignore
+	transient protected Map<String, Tag> persistedTags = null;
+
+	/**
+	 * Filter conditions under which the TagIndex holds this photo; null if it is not indexed
+	 */
+	@Ignore
+	transient protected Set<String> indexedConditions = null;
+
 	/**
 	 *
 	 */
@@ -138,11 +169,11 @@ public class Photo extends DataObject {
 	Key parent = ObjectManager.applicationRootKey;
 
 	/**
-	 *
+	 * For Objectify to load photos, which sets all fields; new photos get their id from the other constructor, so
+	 * that loading a photo does not use up an id.
 	 */
-	public Photo() {
-		id = PhotoId.getNextId();
-		incWriteCount();
+	protected Photo() {
+		id = PhotoId.NULL_ID;
 	}
 
 	/**
@@ -150,10 +181,37 @@ public class Photo extends DataObject {
 	 */
 	public Photo(PhotoId myId) {
 		id = myId;
+		parent = ObjectManager.getEntityGroupKey(getShardingValue());
 
 		incWriteCount();
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Photos are grouped by their id, so that a photo and its tags share one entity group.
+	 */
+	@Override
+	public Object getShardingValue() {
+		return id.asString();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public Key getEntityGroupKey() {
+		return parent;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@Override
+	public void setEntityGroupKey(Key newEntityGroupKey) {
+		parent = newEntityGroupKey;
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -166,6 +224,16 @@ public class Photo extends DataObject {
 	 */
 	public void setImage(PhotoSize photoSize, Image image) {
 		this.images.put(photoSize, image);
+		incWriteCount(IMAGES_ASPECT);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Removes the image of the size unless it has been replaced by another one meanwhile.
+	 */
+	public void removeImage(PhotoSize photoSize, Image image) {
+		this.images.remove(photoSize, image);
 	}
 
 	/**
@@ -194,7 +262,8 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerId(String newName) {
 		ownerId = newName;
-		incWriteCount();
+		incWriteCount(OWNER_ASPECT);
+		notifyListener();
 	}
 
 	/**
@@ -224,7 +293,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerNotifyAboutPraise(boolean newNotifyAboutPraise) {
 		ownerNotifyAboutPraise = newNotifyAboutPraise;
-		incWriteCount();
+		incWriteCount(OWNER_ASPECT);
 	}
 
 	/**
@@ -239,7 +308,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerLanguage(Language newLanguage) {
 		ownerLanguage = newLanguage;
-		incWriteCount();
+		incWriteCount(OWNER_ASPECT);
 	}
 
 	/**
@@ -261,7 +330,7 @@ public class Photo extends DataObject {
 	 */
 	public void setOwnerEmailAddress(EmailAddress newEmailAddress) {
 		ownerEmailAddress = newEmailAddress;
-		incWriteCount();
+		incWriteCount(OWNER_ASPECT);
 	}
 
 	/**
@@ -308,7 +377,7 @@ public class Photo extends DataObject {
 
 		maxPhotoSize = PhotoSize.getFromWidthHeight(width, height);
 
-		incWriteCount();
+		incWriteCount(IMAGES_ASPECT);
 	}
 
 	/**
@@ -347,7 +416,7 @@ public class Photo extends DataObject {
 	public void addToPraise(int value) {
 		praiseSum += value;
 		noVotes += 1;
-		incWriteCount();
+		incWriteCount(PRAISE_ASPECT);
 	}
 
 	/**
@@ -369,7 +438,25 @@ public class Photo extends DataObject {
 	 */
 	public void setStatus(PhotoStatus newStatus) {
 		status = newStatus;
-		incWriteCount();
+		incWriteCount(STATUS_ASPECT);
+		notifyListener();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setListener(PhotoListener newListener) {
+		listener = newListener;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void notifyListener() {
+		PhotoListener currentListener = listener;
+		if (currentListener != null) {
+			currentListener.photoChanged(this);
+		}
 	}
 
 	/**
@@ -391,7 +478,36 @@ public class Photo extends DataObject {
 	 */
 	public void setTags(Tags newTags) {
 		tags = newTags;
-		incWriteCount();
+		incWriteCount(TAGS_ASPECT);
+		notifyListener();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Map<String, Tag> getPersistedTags() {
+		return persistedTags;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setPersistedTags(Map<String, Tag> newPersistedTags) {
+		persistedTags = newPersistedTags;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<String> getIndexedConditions() {
+		return indexedConditions;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setIndexedConditions(Set<String> newIndexedConditions) {
+		indexedConditions = newIndexedConditions;
 	}
 
 	/**
@@ -421,7 +537,7 @@ public class Photo extends DataObject {
 	 */
 	public void setNoNewPraise() {
 		noVotesAtLastNotification = noVotes;
-		incWriteCount();
+		incWriteCount(PRAISE_ASPECT);
 	}
 
 	/**
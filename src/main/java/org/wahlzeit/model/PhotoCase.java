@@ -20,15 +20,19 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.datastore.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import org.wahlzeit.services.EntityGroupMember;
+import org.wahlzeit.services.ObjectManager;
 
 /**
  * A photo case is a case where someone flagged a photo as inappropriate.
  */
 @Entity
 @Pattern(name = "Mediator", participants = { "Mediatee" })
-public class PhotoCase extends Case {
+public class PhotoCase extends Case implements EntityGroupMember {
 
 	/**
 	 *
@@ -53,6 +57,8 @@ public class PhotoCase extends Case {
 	 */
 	@Id
 	Long longId;
+	@Parent
+	Key parent = ObjectManager.applicationRootKey;
 
 	/**
 	 *
@@ -60,10 +66,37 @@ public class PhotoCase extends Case {
 	public PhotoCase(Photo myPhoto) {
 		id = getNextCaseId();
 		photo = myPhoto;
+		parent = ObjectManager.getEntityGroupKey(getShardingValue());
 
 		incWriteCount();
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Cases are spread over the entity groups by their id, so that flagging photos does not contend for one group.
+	 */
+	@Override
+	public Object getShardingValue() {
+		return getIdAsString();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public Key getEntityGroupKey() {
+		return parent;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@Override
+	public void setEntityGroupKey(Key newEntityGroupKey) {
+		parent = newEntityGroupKey;
+	}
+
 	/**
 	 *
 	 */
@@ -87,7 +87,7 @@ public class PhotoFactory {
 	 * @methodtype factory
 	 */
 	public Photo createPhoto() {
-		return new Photo();
+		return new Photo(PhotoId.getNextId());
 	}
 
 	/**
@@ -20,13 +20,11 @@
 
 package org.wahlzeit.model;
 
-import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.IntBitmap;
 import org.wahlzeit.utils.StringUtil;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
@@ -45,6 +43,11 @@ public class PhotoFilter implements Serializable {
 	public static final String USER_NAME = "userName";
 	public static final String TAGS = "tags";
 
+	/**
+	 * Number of random draws before sampling falls back to a slower but certain method
+	 */
+	protected static final int MAX_NO_DRAWS = 16;
+
 	/**
 	 *
 	 */
@@ -52,11 +55,23 @@ public class PhotoFilter implements Serializable {
 	protected Tags tags = Tags.EMPTY_TAGS;
 
 	/**
-	 *
+	 * Ids of processed and skipped photos, by PhotoId.asInt()
+	 */
+	protected IntBitmap processedPhotoIds = new IntBitmap();
+	protected IntBitmap skippedPhotoIds = new IntBitmap();
+
+	/**
+	 * Cursor over the photos left to show once most matching photos have been processed or skipped: the matching
+	 * ids that were neither, computed once per change of the filter conditions and then kept up to date as photos are
+	 * processed, skipped, uploaded, or hidden. Like the other fields it is kept with the session across requests.
 	 */
-	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected IntBitmap candidatePhotoIds = null;
+	protected List<String> candidateConditions = null;
+
+	/**
+	 * Highest matching id the candidates were updated with; photos uploaded later have higher ids
+	 */
+	protected int candidateIdLimit = -1;
 
 	/**
 	 *
@@ -67,7 +82,7 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public PhotoFilter() {
-		resetDisplayablePhotoIds();
+		// do nothing
 	}
 
 	/**
@@ -83,8 +98,8 @@ public class PhotoFilter implements Serializable {
 	public void clear() {
 		setUserName("");
 		setTags(Tags.EMPTY_TAGS);
-		displayablePhotoIds.clear();
 		processedPhotoIds.clear();
+		resetCandidates();
 	}
 
 	/**
@@ -92,7 +107,6 @@ public class PhotoFilter implements Serializable {
 	 */
 	public void setUserName(String newUserName) {
 		userName = newUserName;
-		resetDisplayablePhotoIds();
 	}
 
 	/**
@@ -107,7 +121,6 @@ public class PhotoFilter implements Serializable {
 	 */
 	public void setTags(Tags newTags) {
 		tags = newTags;
-		resetDisplayablePhotoIds();
 	}
 
 	/**
@@ -137,50 +150,110 @@ public class PhotoFilter implements Serializable {
 	}
 
 	/**
-	 * @methodtype command
+	 * Get a random photo that has not been rated. If possible avoid skipped photos.
+	 *
+	 * Draws uniformly from the visible photos that match the filter conditions and have been neither processed nor
+	 * skipped. As long as most matching photos qualify, ids are drawn from the shared result of the filter and
+	 * rejected if they do not. Otherwise, one is selected from the candidates of the session, which are computed
+	 * once per change of the filter conditions. If none qualifies, one of the matching skipped photos is selected.
 	 */
-	public void generateDisplayablePhotoIds() {
-		displayablePhotoIds = getFilteredPhotoIds();
+	public PhotoId getRandomDisplayablePhotoId() {
+		IntBitmap matchingPhotoIds = getMatchingPhotoIds(getFilterConditions());
+
+		int id = -1;
+		int noExcludedPhotoIds = processedPhotoIds.getCardinality() + skippedPhotoIds.getCardinality();
+		if (noExcludedPhotoIds <= matchingPhotoIds.getCardinality() / 2) {
+			id = drawDisplayablePhotoId(matchingPhotoIds);
+		}
+
+		if (id < 0) {
+			id = selectCandidatePhotoId(getFilterConditions(), matchingPhotoIds);
+		}
+
+		if (id < 0) {
+			id = selectPhotoId(IntBitmap.and(matchingPhotoIds, skippedPhotoIds));
+		}
+
+		return (id < 0) ? PhotoId.NULL_ID : PhotoId.getIdFromInt(id);
 	}
 
 	/**
-	 * Get a random photo that has not been rated. If possible avoid skipped photos.
+	 * @methodtype get
+	 *
+	 * Draws ids from the photo ids until one has been neither processed nor skipped; returns -1 if none was found
+	 * within MAX_NO_DRAWS draws.
 	 */
-	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
-		} else {
-			return PhotoId.NULL_ID;
+	protected int drawDisplayablePhotoId(IntBitmap photoIds) {
+		int noPhotoIds = photoIds.getCardinality();
+		for (int i = 0; (i < MAX_NO_DRAWS) && (noPhotoIds > 0); i++) {
+			int id = photoIds.select(randomNumber.nextInt(noPhotoIds));
+			if (!processedPhotoIds.contains(id) && !skippedPhotoIds.contains(id)) {
+				return id;
+			}
 		}
+
+		return -1;
 	}
 
 	/**
+	 * @methodtype get
 	 *
+	 * Returns a uniformly selected candidate that still matches and has been neither processed nor skipped, or -1 if
+	 * there is none. Candidates that no longer qualify, e.g. because the photo was hidden, are removed as they are
+	 * selected; photos uploaded since the last call are added.
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
-		return displayablePhotoIds;
+	protected int selectCandidatePhotoId(List<String> filterConditions, IntBitmap matchingPhotoIds) {
+		if (candidatePhotoIds == null || !filterConditions.equals(candidateConditions)) {
+			IntBitmap unratedPhotoIds = IntBitmap.andNot(matchingPhotoIds, processedPhotoIds);
+			candidatePhotoIds = IntBitmap.andNot(unratedPhotoIds, skippedPhotoIds);
+			candidateConditions = filterConditions;
+			int noMatchingPhotoIds = matchingPhotoIds.getCardinality();
+			candidateIdLimit = (noMatchingPhotoIds > 0) ? matchingPhotoIds.select(noMatchingPhotoIds - 1) : -1;
+		} else {
+			int id = matchingPhotoIds.nextValue(candidateIdLimit + 1);
+			while (id >= 0) {
+				if (!processedPhotoIds.contains(id) && !skippedPhotoIds.contains(id)) {
+					candidatePhotoIds.add(id);
+				}
+				candidateIdLimit = id;
+				id = matchingPhotoIds.nextValue(id + 1);
+			}
+		}
+
+		while (!candidatePhotoIds.isEmpty()) {
+			int id = selectPhotoId(candidatePhotoIds);
+			if (matchingPhotoIds.contains(id) && !processedPhotoIds.contains(id) && !skippedPhotoIds.contains(id)) {
+				return id;
+			}
+			candidatePhotoIds.remove(id);
+		}
+
+		return -1;
 	}
 
 	/**
-	 *
+	 * @methodtype command
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
-		displayablePhotoIds = newPhotoIds;
+	protected void resetCandidates() {
+		candidatePhotoIds = null;
+		candidateConditions = null;
+		candidateIdLimit = -1;
 	}
 
 	/**
+	 * @methodtype get
 	 *
+	 * Returns a uniformly selected id of the photo ids, or -1 if there is none.
 	 */
-	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new ArrayList<PhotoId>();
+	protected int selectPhotoId(IntBitmap photoIds) {
+		int noPhotoIds = photoIds.getCardinality();
+		return (noPhotoIds > 0) ? photoIds.select(randomNumber.nextInt(noPhotoIds)) : -1;
 	}
 
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public IntBitmap getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,11 +261,7 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
-		return processedPhotoIds.contains(photoId);
+		return processedPhotoIds.contains(photoId.asInt());
 	}
 
 	/**
@@ -200,10 +269,10 @@ public class PhotoFilter implements Serializable {
 	 */
 	public void addProcessedPhoto(Photo photo) {
 		PhotoId photoId = photo.getId();
-		processedPhotoIds.add(photoId);
-		skippedPhotoIds.remove(photoId);
-		if (displayablePhotoIds != null) {
-			displayablePhotoIds.remove(photoId);
+		processedPhotoIds.add(photoId.asInt());
+		skippedPhotoIds.remove(photoId.asInt());
+		if (candidatePhotoIds != null) {
+			candidatePhotoIds.remove(photoId.asInt());
 		}
 	}
 
@@ -211,69 +280,36 @@ public class PhotoFilter implements Serializable {
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public IntBitmap getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(IntBitmap skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
+		resetCandidates();
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
+		skippedPhotoIds.add(skippedPhotoId.asInt());
+		if (candidatePhotoIds != null) {
+			candidatePhotoIds.remove(skippedPhotoId.asInt());
 		}
 	}
 
 	/**
+	 * @methodtype get
 	 *
+	 * Returns the ids of the visible photos that belong to the user and carry all tags of the filter conditions; the
+	 * result is shared with other sessions and must not be modified.
 	 */
-	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
-
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
-			}
-		}
-
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
-			}
-		}
-		int skippedPhotos = skippedPhotoIds.size();
-		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
-		}
-
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
-				.toString());
-
-		return result;
+	protected IntBitmap getMatchingPhotoIds(List<String> filterConditions) {
+		return PhotoManager.getInstance().getFilterResultCache().getPhotoIds(filterConditions);
 	}
+
 }
@@ -20,8 +20,11 @@
 
 package org.wahlzeit.model;
 
+import org.wahlzeit.services.IdSequence;
+
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A photo id identifies a photo with a unique number.
@@ -31,24 +34,40 @@ import java.util.Random;
 public class PhotoId implements Serializable {
 
 	/**
-	 * 0 is never returned from nextValue; first value is 1
+	 * Highest id handed out or set; 0 is never returned from nextValue; first value is 1
 	 */
-	protected static int currentId = 0;
+	protected static volatile int currentId = 0;
 
 	/**
-	 *
+	 * Number of ids that are reserved at once
 	 */
-	public static final int BUFFER_SIZE_INCREMENT = 64;
+	public static final int ID_BLOCK_SIZE = 100;
 
 	/**
 	 *
 	 */
-	public static final PhotoId NULL_ID = new PhotoId(0);
+	protected static final IdSequence idSequence = new IdSequence(ID_BLOCK_SIZE);
+
+	/**
+	 * Interned ids are held in a three-level table of segments with 2^SEGMENT_SHIFT entries each; the root segment has
+	 * 2^ROOT_SHIFT entries, so that the table covers all non-negative ints.
+	 */
+	public static final int SEGMENT_SHIFT = 10;
+	public static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	public static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+	public static final int ROOT_SHIFT = 31 - 2 * SEGMENT_SHIFT;
+
+	/**
+	 * Segments are added with compare-and-set and never replaced, so lookups neither lock nor copy, and a PhotoId
+	 * is safely published by the atomic array it is stored in.
+	 */
+	protected static final AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<PhotoId>>> ids =
+			new AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<PhotoId>>>(1 << ROOT_SHIFT);
 
 	/**
 	 *
 	 */
-	protected static PhotoId[] ids = new PhotoId[BUFFER_SIZE_INCREMENT];
+	public static final PhotoId NULL_ID = intern(new PhotoId(0));
 
 	/**
 	 * What a hack :-)
@@ -74,48 +93,97 @@ public class PhotoId implements Serializable {
 	/**
 	 *
 	 */
-	public static synchronized void setCurrentIdFromInt(int id) {
+	public static void setCurrentIdFromInt(int id) {
+		setCurrentIdFromInt(id, null);
+	}
+
+	/**
+	 * Sets the current id; new ids are handed out from blocks of the source, or from local blocks if it is null.
+	 */
+	public static synchronized void setCurrentIdFromInt(int id, IdSequence.BlockSource idBlockSource) {
 		currentId = id;
-		ids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-		ids[0] = NULL_ID;
+		idSequence.reset(id, idBlockSource);
 	}
 
 	/**
-	 *
+	 * Hands out the next id of the reserved block without locking
 	 */
-	public static synchronized int getNextIdAsInt() {
-		currentId += 1;
-		if (currentId >= ids.length) {
-			PhotoId[] nids = new PhotoId[currentId + BUFFER_SIZE_INCREMENT];
-			System.arraycopy(ids, 0, nids, 0, currentId);
-			ids = nids;
+	public static int getNextIdAsInt() {
+		int result = (int) idSequence.getNextId();
+		if (result > currentId) {
+			updateCurrentId(result);
 		}
-		return currentId;
+		return result;
 	}
 
 	/**
 	 *
 	 */
+	protected static synchronized void updateCurrentId(int id) {
+		if (id > currentId) {
+			currentId = id;
+		}
+	}
+
+	/**
+	 * Ids above the current id are valid as well, as they may have been handed out by other instances.
+	 */
 	public static PhotoId getIdFromInt(int id) {
-		if ((id < 0) || (id > currentId)) {
+		if (id < 0) {
 			return NULL_ID;
 		}
 
-		// @FIXME http://en.wikipedia.org/wiki/Double-checked_locking
-		PhotoId result = ids[id];
+		AtomicReferenceArray<PhotoId> segment = getSegment(id);
+		PhotoId result = segment.get(id & SEGMENT_MASK);
 		if (result == null) {
-			synchronized (ids) {
-				result = ids[id];
-				if (result == null) {
-					result = new PhotoId(id);
-					ids[id] = result;
-				}
-			}
+			result = doIntern(segment, new PhotoId(id));
+		}
+
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the segment that holds the id, adding missing segments on the way.
+	 */
+	protected static AtomicReferenceArray<PhotoId> getSegment(int id) {
+		int rootIndex = id >>> (2 * SEGMENT_SHIFT);
+		AtomicReferenceArray<AtomicReferenceArray<PhotoId>> directory = ids.get(rootIndex);
+		if (directory == null) {
+			ids.compareAndSet(rootIndex, null, new AtomicReferenceArray<AtomicReferenceArray<PhotoId>>(SEGMENT_SIZE));
+			directory = ids.get(rootIndex);
 		}
 
+		int directoryIndex = (id >>> SEGMENT_SHIFT) & SEGMENT_MASK;
+		AtomicReferenceArray<PhotoId> result = directory.get(directoryIndex);
+		if (result == null) {
+			directory.compareAndSet(directoryIndex, null, new AtomicReferenceArray<PhotoId>(SEGMENT_SIZE));
+			result = directory.get(directoryIndex);
+		}
 		return result;
 	}
 
+	/**
+	 * @methodtype command
+	 */
+	protected static PhotoId intern(PhotoId id) {
+		return doIntern(getSegment(id.value), id);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Stores the id unless another thread has been faster; returns the id that is stored.
+	 */
+	protected static PhotoId doIntern(AtomicReferenceArray<PhotoId> segment, PhotoId id) {
+		int index = id.value & SEGMENT_MASK;
+		if (segment.compareAndSet(index, null, id)) {
+			return id;
+		}
+		return segment.get(index);
+	}
+
 	/**
 	 *
 	 */
@@ -208,7 +276,8 @@ public class PhotoId implements Serializable {
 	 *
 	 */
 	public static String getFromInt(int id) {
-		StringBuffer result = new StringBuffer(10);
+		char[] result = new char[8];
+		int start = result.length;
 
 		id += ID_START;
 		for (; id > 0; id = id / 36) {
@@ -219,17 +288,17 @@ public class PhotoId implements Serializable {
 			} else {
 				letterOrDigit = (char) ((int) 'a' - 10 + modulus);
 			}
-			result.insert(0, letterOrDigit);
-
+			result[--start] = letterOrDigit;
 		}
 
-		return "x" + result.toString();
+		result[--start] = 'x';
+		return new String(result, start, result.length - start);
 	}
 
 	/**
-	 *
+	 * Parses the id without allocating, so that ids from request paths can be looked up cheaply.
 	 */
-	public static int getFromString(String value) {
+	public static int getFromString(CharSequence value) {
 		int result = 0;
 		for (int i = 1; i < value.length(); i++) {
 			int temp = 0;
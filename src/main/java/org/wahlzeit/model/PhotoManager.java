@@ -20,24 +20,32 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.images.Image;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
+import org.wahlzeit.model.persistence.ImageCache;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.utils.IntBitmap;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -53,20 +61,60 @@ public class PhotoManager extends ObjectManager {
 	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
 
 	/**
-	 * In-memory cache for photos
+	 * Number of photos that are read from the datastore with one query when loading
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	public static final int LOAD_PAGE_SIZE = 500;
+
+	/**
+	 * In-memory cache for photos, indexed by PhotoId.asInt(). Reads do not lock and iterations are weakly consistent,
+	 * so requests, agents, and the background loading can use it at the same time.
+	 */
+	protected PhotoRegistry photoCache = new PhotoRegistry();
+
+	/**
+	 * Loads of photos that are not in the cache yet; concurrent misses for the same id wait for the same load
+	 */
+	protected ConcurrentMap<PhotoId, FutureTask<Photo>> pendingLoads =
+			new ConcurrentHashMap<PhotoId, FutureTask<Photo>>();
+
+	/**
+	 * Progress of loading the photos at startup
+	 */
+	protected volatile boolean isLoadComplete = false;
+	protected AtomicInteger noLoadedPhotos = new AtomicInteger(0);
 
 	/**
 	 *
 	 */
 	protected PhotoTagCollector photoTagCollector = null;
 
+	/**
+	 * Inverted index of the filter conditions of all cached photos
+	 */
+	protected TagIndex tagIndex = null;
+
+	/**
+	 * Filter results shared by all sessions, kept up to date with the tag index
+	 */
+	protected FilterResultCache filterResultCache = null;
+
+	/**
+	 * Registered with each cached photo, so that changes of its tags, owner, or status update the index
+	 */
+	protected final PhotoListener tagIndexUpdater = new PhotoListener() {
+		@Override
+		public void photoChanged(Photo photo) {
+			updateTagIndex(photo);
+		}
+	};
+
 	/**
 	 *
 	 */
 	public PhotoManager() {
 		photoTagCollector = PhotoFactory.getInstance().createPhotoTagCollector();
+		tagIndex = new TagIndex(photoTagCollector);
+		filterResultCache = new FilterResultCache(tagIndex);
 	}
 
 	/**
@@ -97,6 +145,65 @@ public class PhotoManager extends ObjectManager {
 		return instance.getPhotoFromId(id);
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public final Photo getPhoto(int id) {
+		Photo result = photoCache.get(id);
+		return (result != null) ? result : getPhotoFromId(PhotoId.getIdFromInt(id));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the cached photo with the id, without trying to load it.
+	 */
+	public Photo getCachedPhoto(int id) {
+		return photoCache.get(id);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest id of a cached photo that is not less than fromId, or -1 if there is none; for scans over
+	 * all cached photos that do not allocate.
+	 */
+	public int getNextCachedPhotoId(int fromId) {
+		return photoCache.getNextId(fromId);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest id of a cached and visible photo that is not less than fromId, or -1 if there is none.
+	 */
+	public int getNextVisiblePhotoId(int fromId) {
+		return photoCache.getNextVisibleId(fromId);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isVisiblePhoto(int id) {
+		return photoCache.isVisible(id);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a new bitmap of the ids of all cached and visible photos.
+	 */
+	public IntBitmap getVisiblePhotoIds() {
+		return photoCache.getVisibleIds();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoCachedPhotos() {
+		return photoCache.size();
+	}
+
 	/**
 	 *
 	 */
@@ -108,21 +215,63 @@ public class PhotoManager extends ObjectManager {
 		Photo result = doGetPhotoFromId(id);
 
 		if (result == null) {
-			result = PhotoFactory.getInstance().loadPhoto(id);
-			if (result != null) {
-				doAddPhoto(result);
-			}
+			result = loadPhoto(id);
 		}
 
 		return result;
 	}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Loads the photo that is not in the cache. Only the first of several concurrent callers loads it; the others wait
+	 * for its result.
+	 */
+	protected Photo loadPhoto(final PhotoId id) {
+		FutureTask<Photo> load = new FutureTask<Photo>(new Callable<Photo>() {
+			@Override
+			public Photo call() {
+				// another load may have finished in the meantime
+				Photo result = doGetPhotoFromId(id);
+				if (result == null) {
+					result = PhotoFactory.getInstance().loadPhoto(id);
+					if (result != null) {
+						result = doAddPhotoIfAbsent(result);
+					}
+				}
+				return result;
+			}
+		});
+
+		FutureTask<Photo> pendingLoad = pendingLoads.putIfAbsent(id, load);
+		if (pendingLoad == null) {
+			pendingLoad = load;
+			try {
+				load.run();
+			} finally {
+				pendingLoads.remove(id, load);
+			}
+		}
+
+		try {
+			return pendingLoad.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException("could not load photo " + id.asString(), ex.getCause());
+		}
+	}
+
 	/**
 	 * @methodtype get
 	 * @methodproperties primitive
 	 */
 	protected Photo doGetPhotoFromId(PhotoId id) {
-		return photoCache.get(id);
+		return photoCache.get(id.asInt());
 	}
 
 	/**
@@ -130,7 +279,58 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperties primitive
 	 */
 	protected void doAddPhoto(Photo myPhoto) {
-		photoCache.put(myPhoto.getId(), myPhoto);
+		Photo previousPhoto = photoCache.put(myPhoto);
+		if (previousPhoto != null && previousPhoto != myPhoto) {
+			previousPhoto.setListener(null);
+			tagIndex.removePhoto(previousPhoto);
+		}
+		myPhoto.setListener(tagIndexUpdater);
+		tagIndex.updatePhoto(myPhoto);
+		filterResultCache.updatePhoto(myPhoto);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 *
+	 * Adds the photo unless the cache already holds one with its id; returns the photo that is in the cache.
+	 */
+	protected Photo doAddPhotoIfAbsent(Photo myPhoto) {
+		Photo result = photoCache.putIfAbsent(myPhoto);
+		if (result == myPhoto) {
+			myPhoto.setListener(tagIndexUpdater);
+			tagIndex.updatePhoto(myPhoto);
+			filterResultCache.updatePhoto(myPhoto);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public TagIndex getTagIndex() {
+		return tagIndex;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public FilterResultCache getFilterResultCache() {
+		return filterResultCache;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Updates the tag index and the visibility of the photo after its tags, owner, or status changed; photos that are
+	 * not cached are not indexed. Cached photos call it via their listener.
+	 */
+	public void updateTagIndex(Photo photo) {
+		if (photoCache.get(photo.getId().asInt()) == photo) {
+			photoCache.updateVisibility(photo);
+			tagIndex.updatePhoto(photo);
+			filterResultCache.updatePhoto(photo);
+		}
 	}
 
 	/**
@@ -141,81 +341,136 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype init Loads all Photos from the Datastore and holds them in the cache
+	 * @methodtype init Loads the first page of Photos from the Datastore and continues loading the remaining pages in
+	 * the background, so that requests can be served before all photos are in the cache.
 	 */
 	public void init() {
-		loadPhotos();
+		String cursor = loadPhotoPage(null);
+		if (cursor != null) {
+			continueLoadingPhotos(cursor);
+		} else {
+			setLoadComplete();
+		}
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos page by page. Executed when Wahlzeit is restarted.
 	 */
 	public void loadPhotos() {
-		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
+		String cursor = null;
+		do {
+			cursor = loadPhotoPage(cursor);
+		} while (cursor != null);
+
+		setLoadComplete();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads the pages after the given cursor in a background thread. If the instance does not support background
+	 * threads, the pages are loaded right away.
+	 */
+	protected void continueLoadingPhotos(final String cursor) {
+		Runnable loader = new Runnable() {
+			@Override
+			public void run() {
+				loadRemainingPhotos(cursor);
+			}
+		};
+
+		try {
+			ThreadManager.createBackgroundThread(loader).start();
+			log.info(LogBuilder.createSystemMessage().addMessage("Loading remaining photos in background.").toString());
+		} catch (RuntimeException ex) {
+			log.config(LogBuilder.createSystemMessage().
+					addException("No background thread available, loading remaining photos now", ex).toString());
+			loader.run();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void loadRemainingPhotos(String cursor) {
+		try {
+			while (cursor != null) {
+				cursor = loadPhotoPage(cursor);
+			}
+			setLoadComplete();
+		} catch (RuntimeException ex) {
+			log.warning(LogBuilder.createSystemMessage().
+					addException("Loading photos stopped before all pages were read", ex).toString());
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads one page of photos starting at the cursor into the cache and returns the cursor of the next page, or null
+	 * if it was the last page.
+	 */
+	protected String loadPhotoPage(final String startCursor) {
+		final List<Photo> page = new ArrayList<Photo>(LOAD_PAGE_SIZE);
+		String nextCursor = ObjectifyService.run(new Work<String>() {
 			@Override
-			public Collection<Photo> run() {
-				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
-				return existingPhotos;
+			public String run() {
+				return readObjectPage(page, Photo.class, startCursor, LOAD_PAGE_SIZE);
 			}
 		});
 
-		for (Photo photo : existingPhotos) {
-			if (!doHasPhoto(photo.getId())) {
+		List<Photo> addedPhotos = new ArrayList<Photo>(page.size());
+		for (Photo photo : page) {
+			if (photoCache.putIfAbsent(photo) == photo) {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
-				doAddPhoto(photo);
+				addedPhotos.add(photo);
 			} else {
 				log.config(LogBuilder.createSystemMessage().
 						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
 			}
 		}
+		tagIndex.updatePhotos(addedPhotos);
+		filterResultCache.updatePhotos(addedPhotos);
+
+		int loaded = noLoadedPhotos.addAndGet(page.size());
+		log.info(LogBuilder.createSystemMessage().
+				addParameter("Number of loaded photos", loaded).toString());
+
+		return nextCursor;
+	}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+	/**
+	 * @methodtype set
+	 */
+	protected void setLoadComplete() {
+		isLoadComplete = true;
+		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").
+				addParameter("Number of loaded photos", noLoadedPhotos.get()).toString());
 	}
 
 	/**
 	 * @methodtype boolean-query
-	 * @methodproperty primitive
 	 */
-	protected boolean doHasPhoto(PhotoId id) {
-		return photoCache.containsKey(id);
+	public boolean isLoadComplete() {
+		return isLoadComplete;
 	}
 
 	/**
-	 * @methodtype command
-	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * @methodtype get
 	 */
-	protected void loadScaledImages(Photo photo) {
-		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
+	public int getNoLoadedPhotos() {
+		return noLoadedPhotos.get();
+	}
 
-		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
-					addAction("loading image").
-					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
-				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
-			}
-		}
+	/**
+	 * @methodtype boolean-query
+	 * @methodproperty primitive
+	 */
+	protected boolean doHasPhoto(PhotoId id) {
+		return photoCache.contains(id.asInt());
 	}
 
 	/**
@@ -225,15 +480,53 @@ public class PhotoManager extends ObjectManager {
 		updateObject(photo);
 	}
 
+	/**
+	 * Saves the photo later via the write-behind queue.
+	 */
+	public void schedulePhotoSave(Photo photo) {
+		scheduleObjectUpdate(photo);
+	}
+
 	@Override
 	protected void updateDependents(Persistent obj) {
 		if (obj instanceof Photo) {
-			Photo photo = (Photo) obj;
-			saveScaledImages(photo);
-			updateTags(photo);
-			UserManager userManager = UserManager.getInstance();
-			Client owner = userManager.getClientById(photo.getOwnerId());
-			userManager.saveClient(owner);
+			updateDependents(Collections.singletonList(obj));
+		}
+	}
+
+	/**
+	 * Updates the scaled images, the tags and the owners of all given photos, but only as far as the changed aspects
+	 * of a photo require it; e.g. a vote changes neither. Tags and owners are written in bulk.
+	 */
+	@Override
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		List<Photo> photosWithChangedTags = new ArrayList<Photo>();
+		Set<Client> owners = new HashSet<Client>();
+		UserManager userManager = UserManager.getInstance();
+		for (Persistent obj : objects) {
+			if (obj instanceof Photo) {
+				Photo photo = (Photo) obj;
+				if (photo.isDirty(Photo.IMAGES_ASPECT)) {
+					saveScaledImages(photo);
+				}
+				// tags include the owner name
+				if (photo.isDirty(Photo.TAGS_ASPECT | Photo.OWNER_ASPECT)) {
+					photosWithChangedTags.add(photo);
+				}
+				if (photo.isDirty(Photo.OWNER_ASPECT)) {
+					Client owner = userManager.getClientById(photo.getOwnerId());
+					if (owner != null) {
+						owners.add(owner);
+					}
+				}
+			}
+		}
+
+		if (!photosWithChangedTags.isEmpty()) {
+			updateTags(photosWithChangedTags);
+		}
+		if (!owners.isEmpty()) {
+			userManager.saveClients(owners);
 		}
 	}
 
@@ -266,6 +559,9 @@ public class PhotoManager extends ObjectManager {
 					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
 						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
 					}
+					// persisted images are served via the bounded image cache instead of the photo
+					ImageCache.getInstance().putImage(photoIdAsString, photoSize.asInt(), image);
+					photo.removeImage(photoSize, image);
 				} catch (Exception e) {
 					log.warning(LogBuilder.createSystemMessage().
 							addException("Problem when storing image", e).toString());
@@ -284,17 +580,111 @@ public class PhotoManager extends ObjectManager {
 	 * the photo to the datastore.
 	 */
 	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
+		updateTags(Collections.singletonList(photo));
+	}
+
+	/**
+	 * Updates the tags of all given photos in the datastore by diff: only tags that have been removed since the last
+	 * save are deleted, and only new tags are written, each with one batch. Photos whose tags did not change cause no
+	 * writes at all.
+	 */
+	protected void updateTags(Collection<Photo> photos) {
+		List<Tag> removedTags = new ArrayList<Tag>();
+		List<Tag> addedTags = new ArrayList<Tag>();
+		Map<Photo, Map<String, Tag>> newPersistedTags = new HashMap<Photo, Map<String, Tag>>();
 
-		// add all current tags to the datastore
 		Set<String> tags = new HashSet<String>();
-		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+		for (Photo photo : photos) {
+			tags.clear();
+			photoTagCollector.collect(tags, photo);
+
+			Map<String, Tag> persistedTags = getPersistedTags(photo, removedTags);
+			if (persistedTags.keySet().equals(tags)) {
+				continue;
+			}
+
+			Map<String, Tag> currentTags = new HashMap<String, Tag>();
+			for (Map.Entry<String, Tag> entry : persistedTags.entrySet()) {
+				if (tags.contains(entry.getKey())) {
+					currentTags.put(entry.getKey(), entry.getValue());
+				} else {
+					removedTags.add(entry.getValue());
+				}
+			}
+			for (String text : tags) {
+				if (!currentTags.containsKey(text)) {
+					Tag tag = new Tag(text, photo.getId().asString());
+					log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
+					addedTags.add(tag);
+					currentTags.put(text, tag);
+				}
+			}
+			newPersistedTags.put(photo, currentTags);
+		}
+
+		deleteObjects(removedTags);
+		writeObjects(addedTags);
+
+		for (Map.Entry<Photo, Map<String, Tag>> entry : newPersistedTags.entrySet()) {
+			entry.getKey().setPersistedTags(entry.getValue());
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Moves at most batchSize photos and tags from the former application root to their entity groups and returns
+	 * the number of moved entities. Cached photos get their new parent, so that later writes do not recreate them
+	 * below the old one.
+	 */
+	public int migrateEntityGroups(final int batchSize) {
+		return ObjectifyService.run(new Work<Integer>() {
+			@Override
+			public Integer run() {
+				List<Photo> movedPhotos = moveToEntityGroups(Photo.class, batchSize);
+				for (Photo photo : movedPhotos) {
+					Photo cachedPhoto = photoCache.get(photo.getId().asInt());
+					if (cachedPhoto != null && cachedPhoto != photo) {
+						cachedPhoto.setEntityGroupKey(photo.getEntityGroupKey());
+					}
+				}
+
+				List<Tag> movedTags = moveToEntityGroups(Tag.class, batchSize);
+				for (Tag tag : movedTags) {
+					Photo cachedPhoto = photoCache.get(PhotoId.getFromString(tag.getPhotoId()));
+					if (cachedPhoto != null) {
+						// persisted tags are read again with their new keys
+						cachedPhoto.setPersistedTags(null);
+					}
+				}
+				return movedPhotos.size() + movedTags.size();
+			}
+		});
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the persisted tags of the photo. If they are not known yet, they are read from the datastore;
+	 * duplicate tag entities found on the way are added to the tags to remove.
+	 */
+	protected Map<String, Tag> getPersistedTags(Photo photo, List<Tag> removedTags) {
+		Map<String, Tag> result = photo.getPersistedTags();
+		if (result == null) {
+			List<Tag> existingTags = new ArrayList<Tag>();
+			// tags live in the entity group of their photo
+			readObjects(existingTags, Tag.class, Tag.PHOTO_ID, photo.getId().asString(), photo.getShardingValue());
+			result = new HashMap<String, Tag>();
+			for (Tag tag : existingTags) {
+				if (result.containsKey(tag.getText())) {
+					removedTags.add(tag);
+				} else {
+					result.put(tag.getText(), tag);
+				}
+			}
+			photo.setPersistedTags(result);
 		}
+		return result;
 	}
 
 	/**
@@ -306,20 +696,34 @@ public class PhotoManager extends ObjectManager {
 
 	/**
 	 * @methodtype get
+	 *
+	 * Returns a map view of the cache; its iterators are weakly consistent and never throw
+	 * ConcurrentModificationException. Prefer the int-based accessors, which do not allocate.
 	 */
 	public Map<PhotoId, Photo> getPhotoCache() {
-		return photoCache;
+		return photoCache.asMap();
 	}
 
 	/**
+	 * @methodtype get
 	 *
+	 * Returns a read-only, weakly consistent view of all cached photos, e.g. for agents that iterate over them.
+	 */
+	public Collection<Photo> getPhotos() {
+		return Collections.unmodifiableCollection(photoCache.values());
+	}
+
+	/**
+	 * Reads the photos of the owner from the datastore; photos that are already cached are returned as cached, so
+	 * that their unsaved changes are kept.
 	 */
 	public Set<Photo> findPhotosByOwner(String ownerName) {
-		Set<Photo> result = new HashSet<Photo>();
-		readObjects(result, Photo.class, Photo.OWNER_ID, ownerName);
+		Set<Photo> loadedPhotos = new HashSet<Photo>();
+		readObjects(loadedPhotos, Photo.class, Photo.OWNER_ID, ownerName);
 
-		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+		Set<Photo> result = new HashSet<Photo>();
+		for (Photo photo : loadedPhotos) {
+			result.add(doAddPhotoIfAbsent(photo));
 		}
 
 		return result;
@@ -329,7 +733,6 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Photo getVisiblePhoto(PhotoFilter filter) {
-		filter.generateDisplayablePhotoIds();
 		return getPhotoFromId(filter.getRandomDisplayablePhotoId());
 	}
 
@@ -350,8 +753,6 @@ public class PhotoManager extends ObjectManager {
 		PhotoId id = photo.getId();
 		assertIsNewPhoto(id);
 		doAddPhoto(photo);
-
-		GlobalsManager.getInstance().saveGlobals();
 	}
 
 	/**
@@ -0,0 +1,557 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A PhotoRegistry holds photos in a table indexed by PhotoId.asInt(). Photo ids are dense, so the table is an array
+ * of fixed-size chunks that are allocated as ids are used. Lookups and scans neither allocate nor lock; only adding a
+ * chunk does. Iterations are weakly consistent, like those of a ConcurrentHashMap.
+ *
+ * Each chunk also keeps a bit per photo that tells whether it is visible, so that visibility can be checked and
+ * scanned for without decoding PhotoStatus values. The bits are set as photos are added and as their status changes.
+ */
+public class PhotoRegistry {
+
+	/**
+	 * Number of photos per chunk is 2^CHUNK_SHIFT
+	 */
+	public static final int CHUNK_SHIFT = 10;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	public static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * Number of bits per word of the visibility bits is 2^WORD_SHIFT
+	 */
+	protected static final int WORD_SHIFT = 6;
+	protected static final int WORD_MASK = (1 << WORD_SHIFT) - 1;
+
+	/**
+	 *
+	 */
+	public static final int INITIAL_NO_CHUNKS = 16;
+
+	/**
+	 * Chunks by index; null until the first photo of a chunk is added
+	 */
+	protected volatile AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<Chunk>(INITIAL_NO_CHUNKS);
+
+	/**
+	 * Serializes adding chunks and growing the chunk array
+	 */
+	protected final Object chunksLock = new Object();
+
+	/**
+	 *
+	 */
+	protected final AtomicInteger noPhotos = new AtomicInteger(0);
+
+	/**
+	 *
+	 */
+	protected final Map<PhotoId, Photo> mapView = new MapView();
+
+	/**
+	 *
+	 */
+	public PhotoRegistry() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Photo get(int id) {
+		Chunk chunk = getChunk(id);
+		return (chunk != null) ? chunk.photos.get(id & CHUNK_MASK) : null;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		return get(id) != null;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Adds the photo under its id and returns the photo it replaces, if any.
+	 */
+	public Photo put(Photo photo) {
+		int id = photo.getId().asInt();
+		Chunk chunk = getOrCreateChunk(id);
+		Photo result = chunk.photos.getAndSet(id & CHUNK_MASK, photo);
+		chunk.updateVisible(id & CHUNK_MASK, photo);
+		if (result == null) {
+			noPhotos.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Adds the photo unless there already is one with its id; returns the photo that is in the registry.
+	 */
+	public Photo putIfAbsent(Photo photo) {
+		int id = photo.getId().asInt();
+		Chunk chunk = getOrCreateChunk(id);
+		int index = id & CHUNK_MASK;
+		while (true) {
+			if (chunk.photos.compareAndSet(index, null, photo)) {
+				chunk.updateVisible(index, photo);
+				noPhotos.incrementAndGet();
+				return photo;
+			}
+
+			Photo result = chunk.photos.get(index);
+			if (result != null) {
+				return result;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Removes the photo with the id and returns it, if any.
+	 */
+	public Photo remove(int id) {
+		Chunk chunk = getChunk(id);
+		Photo result = (chunk != null) ? chunk.photos.getAndSet(id & CHUNK_MASK, null) : null;
+		if (result != null) {
+			chunk.updateVisible(id & CHUNK_MASK, null);
+			noPhotos.decrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Updates the visibility bit of the photo after its status changed; photos that are not registered are ignored.
+	 */
+	public void updateVisibility(Photo photo) {
+		int id = photo.getId().asInt();
+		Chunk chunk = getChunk(id);
+		if (chunk != null && chunk.photos.get(id & CHUNK_MASK) == photo) {
+			chunk.updateVisible(id & CHUNK_MASK, photo);
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Returns whether a photo with the id is registered and visible.
+	 */
+	public boolean isVisible(int id) {
+		Chunk chunk = getChunk(id);
+		return (chunk != null) && chunk.isVisible(id & CHUNK_MASK);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return noPhotos.get();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest id that is greater than all ids the registry can hold without adding chunks.
+	 */
+	public int getIdLimit() {
+		return chunks.length() << CHUNK_SHIFT;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest id of a registered photo that is not less than fromId, or -1 if there is none. Scans skip
+	 * chunks that have not been allocated.
+	 */
+	public int getNextId(int fromId) {
+		AtomicReferenceArray<Chunk> currentChunks = chunks;
+		int id = Math.max(fromId, 0);
+		for (int chunkIndex = id >>> CHUNK_SHIFT; chunkIndex < currentChunks.length(); chunkIndex++) {
+			Chunk chunk = currentChunks.get(chunkIndex);
+			if (chunk != null) {
+				for (int index = id & CHUNK_MASK; index < CHUNK_SIZE; index++) {
+					if (chunk.photos.get(index) != null) {
+						return (chunkIndex << CHUNK_SHIFT) | index;
+					}
+				}
+			}
+			id = (chunkIndex + 1) << CHUNK_SHIFT;
+		}
+		return -1;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest id of a visible photo that is not less than fromId, or -1 if there is none. Scans test 64
+	 * photos at once.
+	 */
+	public int getNextVisibleId(int fromId) {
+		AtomicReferenceArray<Chunk> currentChunks = chunks;
+		int id = Math.max(fromId, 0);
+		for (int chunkIndex = id >>> CHUNK_SHIFT; chunkIndex < currentChunks.length(); chunkIndex++) {
+			Chunk chunk = currentChunks.get(chunkIndex);
+			if (chunk != null) {
+				int index = chunk.getNextVisibleIndex(id & CHUNK_MASK);
+				if (index >= 0) {
+					return (chunkIndex << CHUNK_SHIFT) | index;
+				}
+			}
+			id = (chunkIndex + 1) << CHUNK_SHIFT;
+		}
+		return -1;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a bitmap of the ids of all visible photos, e.g. to intersect it with the result of a filter. The bitmap
+	 * is copied from the visibility bits word by word, not built id by id.
+	 */
+	public IntBitmap getVisibleIds() {
+		AtomicReferenceArray<Chunk> currentChunks = chunks;
+		int noChunkWords = CHUNK_SIZE >>> WORD_SHIFT;
+		long[] words = new long[currentChunks.length() * noChunkWords];
+		for (int chunkIndex = 0; chunkIndex < currentChunks.length(); chunkIndex++) {
+			Chunk chunk = currentChunks.get(chunkIndex);
+			if (chunk != null) {
+				for (int wordIndex = 0; wordIndex < noChunkWords; wordIndex++) {
+					words[chunkIndex * noChunkWords + wordIndex] = chunk.visibleBits.get(wordIndex);
+				}
+			}
+		}
+		return IntBitmap.valueOfWords(words);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a weakly consistent view of all photos in the order of their ids.
+	 */
+	public Collection<Photo> values() {
+		return mapView.values();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns a view of the registry as a map, for code that works with PhotoIds; prefer the int-based methods.
+	 */
+	public Map<PhotoId, Photo> asMap() {
+		return mapView;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Chunk getChunk(int id) {
+		if (id < 0) {
+			return null;
+		}
+
+		AtomicReferenceArray<Chunk> currentChunks = chunks;
+		int chunkIndex = id >>> CHUNK_SHIFT;
+		return (chunkIndex < currentChunks.length()) ? currentChunks.get(chunkIndex) : null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Chunk getOrCreateChunk(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("invalid photo id: " + id);
+		}
+
+		Chunk result = getChunk(id);
+		if (result == null) {
+			result = doCreateChunk(id >>> CHUNK_SHIFT);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Chunks are only added while holding the lock, so that growing the chunk array cannot lose a new chunk.
+	 */
+	protected Chunk doCreateChunk(int chunkIndex) {
+		synchronized (chunksLock) {
+			AtomicReferenceArray<Chunk> currentChunks = chunks;
+			if (chunkIndex >= currentChunks.length()) {
+				int newLength = Math.max(currentChunks.length() * 2, chunkIndex + 1);
+				AtomicReferenceArray<Chunk> newChunks = new AtomicReferenceArray<Chunk>(newLength);
+				for (int i = 0; i < currentChunks.length(); i++) {
+					newChunks.set(i, currentChunks.get(i));
+				}
+				chunks = newChunks;
+				currentChunks = newChunks;
+			}
+
+			Chunk result = currentChunks.get(chunkIndex);
+			if (result == null) {
+				result = new Chunk();
+				currentChunks.set(chunkIndex, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A chunk holds the photos of CHUNK_SIZE consecutive ids and a visibility bit for each of them
+	 */
+	protected static class Chunk {
+
+		protected final AtomicReferenceArray<Photo> photos = new AtomicReferenceArray<Photo>(CHUNK_SIZE);
+		protected final AtomicLongArray visibleBits = new AtomicLongArray(CHUNK_SIZE >>> WORD_SHIFT);
+
+		/**
+		 * Sets or clears the bit of the index without locking
+		 */
+		protected void setVisible(int index, boolean isVisible) {
+			int wordIndex = index >>> WORD_SHIFT;
+			long mask = 1L << (index & WORD_MASK);
+			while (true) {
+				long word = visibleBits.get(wordIndex);
+				long newWord = isVisible ? (word | mask) : (word & ~mask);
+				if (word == newWord || visibleBits.compareAndSet(wordIndex, word, newWord)) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Sets the bit of the index for the photo, or clears it for null, and then once more for each photo that
+		 * replaced it meanwhile, so that a concurrent put or remove cannot leave the bit of the photo it replaced
+		 */
+		protected void updateVisible(int index, Photo photo) {
+			while (true) {
+				setVisible(index, (photo != null) && photo.isVisible());
+				Photo current = photos.get(index);
+				if (current == photo) {
+					return;
+				}
+				photo = current;
+			}
+		}
+
+		/**
+		 *
+		 */
+		protected boolean isVisible(int index) {
+			return (visibleBits.get(index >>> WORD_SHIFT) & (1L << (index & WORD_MASK))) != 0;
+		}
+
+		/**
+		 * Returns the smallest index of a visible photo that is not less than fromIndex, or -1 if there is none
+		 */
+		protected int getNextVisibleIndex(int fromIndex) {
+			int wordIndex = fromIndex >>> WORD_SHIFT;
+			long word = visibleBits.get(wordIndex) & (-1L << (fromIndex & WORD_MASK));
+			while (true) {
+				if (word != 0) {
+					return (wordIndex << WORD_SHIFT) | Long.numberOfTrailingZeros(word);
+				}
+
+				wordIndex++;
+				if (wordIndex >= visibleBits.length()) {
+					return -1;
+				}
+				word = visibleBits.get(wordIndex);
+			}
+		}
+
+	}
+
+	/**
+	 * Iterates over all registered photos in the order of their ids; skips photos that are removed after their id has
+	 * been found.
+	 */
+	protected abstract class Scan<T> implements Iterator<T> {
+
+		protected int nextId = getNextId(0);
+		protected Photo nextPhoto = null;
+		protected int lastId = -1;
+
+		@Override
+		public boolean hasNext() {
+			while (nextPhoto == null && nextId >= 0) {
+				nextPhoto = PhotoRegistry.this.get(nextId);
+				if (nextPhoto == null) {
+					nextId = getNextId(nextId + 1);
+				}
+			}
+			return nextPhoto != null;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			T result = get(nextId, nextPhoto);
+			lastId = nextId;
+			nextId = getNextId(nextId + 1);
+			nextPhoto = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			if (lastId < 0) {
+				throw new IllegalStateException();
+			}
+
+			PhotoRegistry.this.remove(lastId);
+			lastId = -1;
+		}
+
+		/**
+		 * Returns the element for the photo with the id
+		 */
+		protected abstract T get(int id, Photo photo);
+
+	}
+
+	/**
+	 * The map view of the registry
+	 */
+	protected class MapView extends AbstractMap<PhotoId, Photo> {
+
+		@Override
+		public Photo get(Object key) {
+			return (key instanceof PhotoId) ? PhotoRegistry.this.get(((PhotoId) key).asInt()) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Photo put(PhotoId key, Photo value) {
+			if (key.asInt() != value.getId().asInt()) {
+				throw new IllegalArgumentException("photo " + value.getId().asString() + " put under id " +
+						key.asString());
+			}
+			return PhotoRegistry.this.put(value);
+		}
+
+		@Override
+		public Photo remove(Object key) {
+			return (key instanceof PhotoId) ? PhotoRegistry.this.remove(((PhotoId) key).asInt()) : null;
+		}
+
+		@Override
+		public int size() {
+			return PhotoRegistry.this.size();
+		}
+
+		@Override
+		public Set<PhotoId> keySet() {
+			return new AbstractSet<PhotoId>() {
+				@Override
+				public Iterator<PhotoId> iterator() {
+					return new Scan<PhotoId>() {
+						@Override
+						protected PhotoId get(int id, Photo photo) {
+							return PhotoId.getIdFromInt(id);
+						}
+					};
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return containsKey(o);
+				}
+
+				@Override
+				public int size() {
+					return PhotoRegistry.this.size();
+				}
+			};
+		}
+
+		@Override
+		public Collection<Photo> values() {
+			return new AbstractCollection<Photo>() {
+				@Override
+				public Iterator<Photo> iterator() {
+					return new Scan<Photo>() {
+						@Override
+						protected Photo get(int id, Photo photo) {
+							return photo;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return PhotoRegistry.this.size();
+				}
+			};
+		}
+
+		@Override
+		public Set<Entry<PhotoId, Photo>> entrySet() {
+			return new AbstractSet<Entry<PhotoId, Photo>>() {
+				@Override
+				public Iterator<Entry<PhotoId, Photo>> iterator() {
+					return new Scan<Entry<PhotoId, Photo>>() {
+						@Override
+						protected Entry<PhotoId, Photo> get(int id, Photo photo) {
+							return new SimpleImmutableEntry<PhotoId, Photo>(PhotoId.getIdFromInt(id), photo);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return PhotoRegistry.this.size();
+				}
+			};
+		}
+
+	}
+
+}
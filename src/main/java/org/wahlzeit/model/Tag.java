@@ -6,6 +6,7 @@ import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.DataObject;
+import org.wahlzeit.services.EntityGroupMember;
 import org.wahlzeit.services.ObjectManager;
 
 /**
@@ -14,7 +15,7 @@ import org.wahlzeit.services.ObjectManager;
  * @review
  */
 @Entity
-public class Tag extends DataObject {
+public class Tag extends DataObject implements EntityGroupMember {
 
 	public static final String TEXT = "text";
 	public static final String PHOTO_ID = "photoId";
@@ -35,6 +36,7 @@ public class Tag extends DataObject {
 	public Tag(String text, String photoId) {
 		this.text = text;
 		this.photoId = photoId;
+		this.parent = ObjectManager.getEntityGroupKey(getShardingValue());
 		incWriteCount();
 	}
 
@@ -46,6 +48,24 @@ public class Tag extends DataObject {
 		return photoId;
 	}
 
+	/**
+	 * A tag lives in the entity group of its photo.
+	 */
+	@Override
+	public Object getShardingValue() {
+		return photoId;
+	}
+
+	@Override
+	public Key getEntityGroupKey() {
+		return parent;
+	}
+
+	@Override
+	public void setEntityGroupKey(Key newEntityGroupKey) {
+		parent = newEntityGroupKey;
+	}
+
 	public String asString() {
 		return "PhotoId: " + photoId + ", Tag: " + text;
 	}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A TagDictionary holds the tags of the visible indexed photos with their popularity, i.e. the number of photos that
+ * carry them, and returns the most popular completions of a prefix, e.g. for suggestions while typing tags. Tags are
+ * kept as Tags.asTag returns them.
+ *
+ * The dictionary is a radix trie: edges are labeled with strings rather than characters, so that chains of nodes
+ * with a single child are collapsed into one. Each node knows the highest popularity in its subtree, so that the top
+ * completions are found best first, without visiting all tags with the prefix.
+ */
+public class TagDictionary {
+
+	/**
+	 *
+	 */
+	protected static final Node[] NO_CHILDREN = new Node[0];
+
+	/**
+	 * The root has an empty label and is never removed
+	 */
+	protected final Node root = new Node("", 0);
+
+	/**
+	 *
+	 */
+	protected int noTags = 0;
+
+	/**
+	 *
+	 */
+	public TagDictionary() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoTags() {
+		return noTags;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the popularity of the tag, or 0 if it is not in the dictionary.
+	 */
+	public synchronized int getCount(String tag) {
+		Node node = root;
+		int offset = 0;
+		while (offset < tag.length()) {
+			Node child = node.getChild(tag.charAt(offset));
+			if (child == null || !tag.startsWith(child.label, offset)) {
+				return 0;
+			}
+			node = child;
+			offset += child.label.length();
+		}
+		return node.count;
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Sets the popularity of the tag; a count of 0 removes the tag.
+	 */
+	public synchronized void setCount(String tag, int count) {
+		if (tag.isEmpty()) {
+			return;
+		}
+
+		doSetCount(root, tag, 0, Math.max(count, 0));
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Adds the delta to the popularity of the tag; a resulting count of 0 or less removes the tag.
+	 */
+	public synchronized void addToCount(String tag, int delta) {
+		setCount(tag, getCount(tag) + delta);
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Sets the count of the tag below the node, whose label matches the tag up to the offset, and prunes nodes that
+	 * are no longer needed on the way back.
+	 */
+	protected void doSetCount(Node node, String tag, int offset, int count) {
+		if (offset == tag.length()) {
+			if (node.count == 0 && count > 0) {
+				noTags++;
+			} else if (node.count > 0 && count == 0) {
+				noTags--;
+			}
+			node.count = count;
+		} else {
+			int index = node.indexOfChild(tag.charAt(offset));
+			if (index < 0) {
+				if (count > 0) {
+					node.addChild(new Node(tag.substring(offset), count));
+					noTags++;
+				}
+			} else {
+				Node child = node.children[index];
+				int noCommonChars = getNoCommonChars(child.label, tag, offset);
+				if (noCommonChars < child.label.length()) {
+					if (count == 0) {
+						return;
+					}
+					child = splitChild(node, index, noCommonChars);
+				}
+
+				doSetCount(child, tag, offset + noCommonChars, count);
+				pruneChild(node, index);
+			}
+		}
+
+		node.updateMaxCount();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Inserts a node for the first chars of the label of the child and returns it.
+	 */
+	protected Node splitChild(Node node, int index, int noChars) {
+		Node child = node.children[index];
+		Node result = new Node(child.label.substring(0, noChars), 0);
+		child.label = child.label.substring(noChars);
+		result.children = new Node[] {child};
+		result.maxCount = child.maxCount;
+		node.children[index] = result;
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Removes the child if it neither is a tag nor has children, and merges it with its only child if it is no tag.
+	 */
+	protected void pruneChild(Node node, int index) {
+		Node child = node.children[index];
+		if (child.count > 0) {
+			return;
+		}
+
+		if (child.children.length == 0) {
+			node.removeChild(index);
+		} else if (child.children.length == 1) {
+			Node grandChild = child.children[0];
+			grandChild.label = child.label + grandChild.label;
+			node.children[index] = grandChild;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static int getNoCommonChars(String label, String tag, int offset) {
+		int max = Math.min(label.length(), tag.length() - offset);
+		int result = 0;
+		while (result < max && label.charAt(result) == tag.charAt(offset + result)) {
+			result++;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns up to maxNoCompletions tags that start with the prefix, the most popular first; tags with the same
+	 * popularity are in alphabetical order.
+	 */
+	public synchronized List<String> getCompletions(String prefix, int maxNoCompletions) {
+		if (maxNoCompletions <= 0) {
+			return Collections.emptyList();
+		}
+
+		Node node = root;
+		StringBuilder path = new StringBuilder(prefix.length() + 16);
+		int offset = 0;
+		while (offset < prefix.length()) {
+			Node child = node.getChild(prefix.charAt(offset));
+			if (child == null) {
+				return Collections.emptyList();
+			}
+
+			int noCommonChars = getNoCommonChars(child.label, prefix, offset);
+			if (noCommonChars < child.label.length() && offset + noCommonChars < prefix.length()) {
+				return Collections.emptyList();
+			}
+
+			path.append(child.label);
+			node = child;
+			offset += noCommonChars;
+		}
+
+		List<String> result = new ArrayList<String>(maxNoCompletions);
+		PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+		candidates.add(new Candidate(node, path.toString(), node.maxCount, false));
+		while (!candidates.isEmpty() && result.size() < maxNoCompletions) {
+			Candidate candidate = candidates.poll();
+			if (candidate.isTag) {
+				result.add(candidate.path);
+			} else {
+				Node current = candidate.node;
+				if (current.count > 0) {
+					candidates.add(new Candidate(current, candidate.path, current.count, true));
+				}
+				for (Node child : current.children) {
+					candidates.add(new Candidate(child, candidate.path + child.label, child.maxCount, false));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * A node of the trie; its label is the part of the tag since its parent
+	 */
+	protected static class Node {
+
+		protected String label;
+		protected int count;
+		protected int maxCount;
+
+		/**
+		 * Sorted by the first char of their labels, which differ
+		 */
+		protected Node[] children = NO_CHILDREN;
+
+		/**
+		 *
+		 */
+		protected Node(String label, int count) {
+			this.label = label;
+			this.count = count;
+			this.maxCount = count;
+		}
+
+		/**
+		 *
+		 */
+		protected int indexOfChild(char c) {
+			int low = 0;
+			int high = children.length - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				char middleChar = children[middle].label.charAt(0);
+				if (middleChar < c) {
+					low = middle + 1;
+				} else if (middleChar > c) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -(low + 1);
+		}
+
+		/**
+		 *
+		 */
+		protected Node getChild(char c) {
+			int index = indexOfChild(c);
+			return (index >= 0) ? children[index] : null;
+		}
+
+		/**
+		 *
+		 */
+		protected void addChild(Node child) {
+			int index = -(indexOfChild(child.label.charAt(0)) + 1);
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(children, 0, newChildren, 0, index);
+			newChildren[index] = child;
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+			children = newChildren;
+		}
+
+		/**
+		 *
+		 */
+		protected void removeChild(int index) {
+			Node[] newChildren = (children.length == 1) ? NO_CHILDREN : new Node[children.length - 1];
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+			children = newChildren;
+		}
+
+		/**
+		 *
+		 */
+		protected void updateMaxCount() {
+			int result = count;
+			for (Node child : children) {
+				result = Math.max(result, child.maxCount);
+			}
+			maxCount = result;
+		}
+
+	}
+
+	/**
+	 * An entry of the best-first search: either a subtree, ranked by its highest popularity, or a tag
+	 */
+	protected static class Candidate implements Comparable<Candidate> {
+
+		protected final Node node;
+		protected final String path;
+		protected final int count;
+		protected final boolean isTag;
+
+		/**
+		 *
+		 */
+		protected Candidate(Node node, String path, int count, boolean isTag) {
+			this.node = node;
+			this.path = path;
+			this.count = count;
+			this.isTag = isTag;
+		}
+
+		/**
+		 * Higher counts first, then alphabetical; as all tags of a subtree start with its path, this yields tags of
+		 * the same count in alphabetical order
+		 */
+		@Override
+		public int compareTo(Candidate other) {
+			if (count != other.count) {
+				return (count > other.count) ? -1 : 1;
+			}
+			int result = path.compareTo(other.path);
+			if (result != 0 || isTag == other.isTag) {
+				return result;
+			}
+			return isTag ? -1 : 1;
+		}
+
+	}
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A TagIndex maps each filter condition of the PhotoTagCollector, e.g. "un:name" or "tg:tag", to the ids of the
+ * cached photos it matches. It is kept up to date as photos are cached and change their tags, owner, or status, so
+ * that filtering does not need to query the datastore. Deleted photos are not indexed.
+ *
+ * The bitmaps of the index are replaced rather than modified, so readers get consistent snapshots without locking.
+ */
+public class TagIndex {
+
+	/**
+	 * Condition that all indexed photos match; it cannot collide with others, which consist of a prefix and a tag
+	 */
+	public static final String ALL_PHOTOS = "*";
+
+	/**
+	 * Prefix of the conditions for tags, as collected by the PhotoTagCollector
+	 */
+	public static final String TAG_PREFIX = "tg:";
+
+	/**
+	 *
+	 */
+	protected static final IntBitmap EMPTY_BITMAP = new IntBitmap();
+
+	/**
+	 *
+	 */
+	protected final PhotoTagCollector photoTagCollector;
+
+	/**
+	 * Photo ids by condition; never modified once put into the map
+	 */
+	protected final ConcurrentMap<String, IntBitmap> photoIdsByCondition = new ConcurrentHashMap<String, IntBitmap>();
+
+	/**
+	 * Serializes updates, which replace bitmaps based on the current ones
+	 */
+	protected final Object updateLock = new Object();
+
+	/**
+	 * The tags of the visible indexed photos with the number of photos that carry them, for tag suggestions
+	 */
+	protected final TagDictionary tagDictionary = new TagDictionary();
+
+	/**
+	 * Ids of the photos whose tags are counted in the tag dictionary, i.e. that were visible when last indexed;
+	 * modified in place, as it is never handed out. Guarded by the update lock.
+	 */
+	protected final IntBitmap countedPhotoIds = new IntBitmap();
+
+	/**
+	 *
+	 */
+	public TagIndex(PhotoTagCollector photoTagCollector) {
+		this.photoTagCollector = photoTagCollector;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the ids of the photos matching the condition. The result is a snapshot and must not be modified.
+	 */
+	public IntBitmap getPhotoIds(String condition) {
+		IntBitmap result = photoIdsByCondition.get(condition);
+		return (result != null) ? result : EMPTY_BITMAP;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPhotoIds(String condition) {
+		return getPhotoIds(condition).getCardinality();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoConditions() {
+		return photoIdsByCondition.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public TagDictionary getTagDictionary() {
+		return tagDictionary;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void updatePhoto(Photo photo) {
+		updatePhotos(Collections.singletonList(photo));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Updates the index for the current conditions of the photos. Each changed bitmap is replaced once per call, so
+	 * callers should pass many photos at once, e.g. a page of loaded photos.
+	 */
+	public void updatePhotos(Collection<Photo> photos) {
+		synchronized (updateLock) {
+			Map<String, IntBitmap> changedBitmaps = new HashMap<String, IntBitmap>();
+			Map<String, Integer> changedTagCounts = new HashMap<String, Integer>();
+			for (Photo photo : photos) {
+				Set<String> conditions = collectConditions(photo);
+				updateTagCounts(changedTagCounts, photo, conditions, !conditions.isEmpty() && photo.isVisible());
+				doUpdatePhoto(changedBitmaps, photo, conditions);
+			}
+			publish(changedBitmaps, changedTagCounts);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Removes the photo from the index, e.g. if it has been replaced in the cache by another instance.
+	 */
+	public void removePhoto(Photo photo) {
+		synchronized (updateLock) {
+			Map<String, IntBitmap> changedBitmaps = new HashMap<String, IntBitmap>();
+			Map<String, Integer> changedTagCounts = new HashMap<String, Integer>();
+			updateTagCounts(changedTagCounts, photo, Collections.<String>emptySet(), false);
+			doUpdatePhoto(changedBitmaps, photo, Collections.<String>emptySet());
+			publish(changedBitmaps, changedTagCounts);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Set<String> collectConditions(Photo photo) {
+		Set<String> result = new HashSet<String>();
+		if (!photo.getStatus().isDeleted()) {
+			result.add(ALL_PHOTOS);
+			photoTagCollector.collect(result, photo);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Records the changes of the photo's conditions since it was last indexed in the changed bitmaps.
+	 */
+	protected void doUpdatePhoto(Map<String, IntBitmap> changedBitmaps, Photo photo, Set<String> conditions) {
+		int id = photo.getId().asInt();
+		Set<String> indexedConditions = photo.getIndexedConditions();
+		if (indexedConditions != null) {
+			for (String condition : indexedConditions) {
+				if (!conditions.contains(condition)) {
+					getChangedBitmap(changedBitmaps, condition).remove(id);
+				}
+			}
+		}
+
+		for (String condition : conditions) {
+			if (indexedConditions == null || !indexedConditions.contains(condition)) {
+				getChangedBitmap(changedBitmaps, condition).add(id);
+			}
+		}
+
+		photo.setIndexedConditions(conditions.isEmpty() ? null : conditions);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Records the changes of the tag counts in the changed tag counts: the tags the photo was last indexed with are no
+	 * longer counted if it was visible then, and its current tags are counted if it is visible now. Hidden photos,
+	 * e.g. flagged or moderated ones, are thus never suggested, while they stay in the index for their owners.
+	 */
+	protected void updateTagCounts(Map<String, Integer> changedTagCounts, Photo photo, Set<String> conditions,
+			boolean isCounted) {
+		int id = photo.getId().asInt();
+		Set<String> indexedConditions = photo.getIndexedConditions();
+		if (countedPhotoIds.contains(id) && indexedConditions != null) {
+			addToTagCounts(changedTagCounts, indexedConditions, -1);
+		}
+
+		if (isCounted) {
+			addToTagCounts(changedTagCounts, conditions, 1);
+			countedPhotoIds.add(id);
+		} else {
+			countedPhotoIds.remove(id);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void addToTagCounts(Map<String, Integer> changedTagCounts, Set<String> conditions, int delta) {
+		for (String condition : conditions) {
+			if (condition.startsWith(TAG_PREFIX)) {
+				Integer changedCount = changedTagCounts.get(condition);
+				changedTagCounts.put(condition, (changedCount != null) ? changedCount + delta : delta);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected IntBitmap getChangedBitmap(Map<String, IntBitmap> changedBitmaps, String condition) {
+		IntBitmap result = changedBitmaps.get(condition);
+		if (result == null) {
+			IntBitmap current = photoIdsByCondition.get(condition);
+			result = (current != null) ? current.copy() : new IntBitmap();
+			changedBitmaps.put(condition, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Replaces the changed bitmaps and updates the popularity of the changed tags in the tag dictionary.
+	 */
+	protected void publish(Map<String, IntBitmap> changedBitmaps, Map<String, Integer> changedTagCounts) {
+		for (Map.Entry<String, IntBitmap> entry : changedBitmaps.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				photoIdsByCondition.remove(entry.getKey());
+			} else {
+				photoIdsByCondition.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		for (Map.Entry<String, Integer> entry : changedTagCounts.entrySet()) {
+			if (entry.getValue() != 0) {
+				tagDictionary.addToCount(entry.getKey().substring(TAG_PREFIX.length()), entry.getValue());
+			}
+		}
+	}
+
+}
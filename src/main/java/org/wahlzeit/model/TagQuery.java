@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A TagQuery is a boolean expression over filter conditions, e.g. "un:name" AND ("tg:sky" OR "tg:sea") AND NOT
+ * "tg:night". It is evaluated against a TagIndex into the deduplicated ids of the matching photos.
+ *
+ * Conjunctions start with their most selective operand and intersect the others in ascending order of their
+ * estimated size, so that intermediate results stay small even if some conditions match most photos. Negated
+ * operands of a conjunction are subtracted at the end.
+ */
+public abstract class TagQuery {
+
+	/**
+	 * @methodtype factory
+	 */
+	public static TagQuery condition(String condition) {
+		return new Condition(condition);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static TagQuery and(TagQuery... operands) {
+		return and(Arrays.asList(operands));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static TagQuery and(List<TagQuery> operands) {
+		return (operands.size() == 1) ? operands.get(0) : new And(operands);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static TagQuery or(TagQuery... operands) {
+		return or(Arrays.asList(operands));
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static TagQuery or(List<TagQuery> operands) {
+		return (operands.size() == 1) ? operands.get(0) : new Or(operands);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static TagQuery not(TagQuery operand) {
+		return new Not(operand);
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the conjunction of all conditions, or the query for all indexed photos if there are none.
+	 */
+	public static TagQuery allOf(List<String> conditions) {
+		List<TagQuery> operands = new ArrayList<TagQuery>(conditions.size());
+		for (String condition : conditions) {
+			operands.add(condition(condition));
+		}
+		return operands.isEmpty() ? condition(TagIndex.ALL_PHOTOS) : and(operands);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the ids of the matching photos. The result may be a snapshot of the index and must not be modified.
+	 */
+	public abstract IntBitmap evaluate(TagIndex tagIndex);
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns an upper bound of the number of matching photos, which is cheap to compute.
+	 */
+	public abstract int estimateSize(TagIndex tagIndex);
+
+	/**
+	 * A single filter condition
+	 */
+	protected static class Condition extends TagQuery {
+
+		protected final String condition;
+
+		protected Condition(String condition) {
+			this.condition = condition;
+		}
+
+		@Override
+		public IntBitmap evaluate(TagIndex tagIndex) {
+			return tagIndex.getPhotoIds(condition);
+		}
+
+		@Override
+		public int estimateSize(TagIndex tagIndex) {
+			return tagIndex.getNoPhotoIds(condition);
+		}
+
+		@Override
+		public String toString() {
+			return condition;
+		}
+
+	}
+
+	/**
+	 * A conjunction of queries
+	 */
+	protected static class And extends TagQuery {
+
+		protected final List<TagQuery> operands;
+
+		protected And(List<TagQuery> operands) {
+			this.operands = new ArrayList<TagQuery>(operands);
+		}
+
+		@Override
+		public IntBitmap evaluate(final TagIndex tagIndex) {
+			List<TagQuery> positives = new ArrayList<TagQuery>();
+			List<TagQuery> negatives = new ArrayList<TagQuery>();
+			for (TagQuery operand : operands) {
+				if (operand instanceof Not) {
+					negatives.add(((Not) operand).operand);
+				} else {
+					positives.add(operand);
+				}
+			}
+
+			IntBitmap result;
+			if (positives.isEmpty()) {
+				result = tagIndex.getPhotoIds(TagIndex.ALL_PHOTOS);
+			} else {
+				Collections.sort(positives, new Comparator<TagQuery>() {
+					@Override
+					public int compare(TagQuery first, TagQuery second) {
+						return Integer.compare(first.estimateSize(tagIndex), second.estimateSize(tagIndex));
+					}
+				});
+
+				result = positives.get(0).evaluate(tagIndex);
+				for (int i = 1; i < positives.size() && !result.isEmpty(); i++) {
+					result = IntBitmap.and(result, positives.get(i).evaluate(tagIndex));
+				}
+			}
+
+			for (int i = 0; i < negatives.size() && !result.isEmpty(); i++) {
+				result = IntBitmap.andNot(result, negatives.get(i).evaluate(tagIndex));
+			}
+			return result;
+		}
+
+		@Override
+		public int estimateSize(TagIndex tagIndex) {
+			int result = Integer.MAX_VALUE;
+			for (TagQuery operand : operands) {
+				if (!(operand instanceof Not)) {
+					result = Math.min(result, operand.estimateSize(tagIndex));
+				}
+			}
+			return (result == Integer.MAX_VALUE) ? tagIndex.getNoPhotoIds(TagIndex.ALL_PHOTOS) : result;
+		}
+
+		@Override
+		public String toString() {
+			return "(" + join(operands, " AND ") + ")";
+		}
+
+	}
+
+	/**
+	 * A disjunction of queries
+	 */
+	protected static class Or extends TagQuery {
+
+		protected final List<TagQuery> operands;
+
+		protected Or(List<TagQuery> operands) {
+			this.operands = new ArrayList<TagQuery>(operands);
+		}
+
+		@Override
+		public IntBitmap evaluate(TagIndex tagIndex) {
+			IntBitmap result = null;
+			for (TagQuery operand : operands) {
+				IntBitmap operandResult = operand.evaluate(tagIndex);
+				result = (result == null) ? operandResult : IntBitmap.or(result, operandResult);
+			}
+			return (result != null) ? result : new IntBitmap();
+		}
+
+		@Override
+		public int estimateSize(TagIndex tagIndex) {
+			long result = 0;
+			for (TagQuery operand : operands) {
+				result += operand.estimateSize(tagIndex);
+			}
+			return (int) Math.min(result, tagIndex.getNoPhotoIds(TagIndex.ALL_PHOTOS));
+		}
+
+		@Override
+		public String toString() {
+			return "(" + join(operands, " OR ") + ")";
+		}
+
+	}
+
+	/**
+	 * The negation of a query, i.e. all indexed photos that do not match it
+	 */
+	protected static class Not extends TagQuery {
+
+		protected final TagQuery operand;
+
+		protected Not(TagQuery operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public IntBitmap evaluate(TagIndex tagIndex) {
+			return IntBitmap.andNot(tagIndex.getPhotoIds(TagIndex.ALL_PHOTOS), operand.evaluate(tagIndex));
+		}
+
+		@Override
+		public int estimateSize(TagIndex tagIndex) {
+			return tagIndex.getNoPhotoIds(TagIndex.ALL_PHOTOS);
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + operand;
+		}
+
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String join(List<TagQuery> operands, String separator) {
+		StringBuilder result = new StringBuilder();
+		for (TagQuery operand : operands) {
+			if (result.length() > 0) {
+				result.append(separator);
+			}
+			result.append(operand);
+		}
+		return result.toString();
+	}
+
+}
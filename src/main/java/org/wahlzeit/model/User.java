@@ -265,11 +265,29 @@ public class User extends Client {
 		return getPhotosReverseOrderedByPraise();
 	}
 
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the photos as held by the PhotoManager where available. The embedded copies of a loaded user are only
+	 * rewritten if the ownership of a photo changes, so e.g. their praise may be outdated.
+	 */
+	protected Photo[] getCurrentPhotos() {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		Photo[] result = photos.toArray(new Photo[0]);
+		for (int i = 0; i < result.length; i++) {
+			Photo current = photoManager.getCachedPhoto(result[i].getId().asInt());
+			if (current != null) {
+				result[i] = current;
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * @methodtype conversion
 	 */
 	public Photo[] getPhotosReverseOrderedByPraise() {
-		Photo[] result = photos.toArray(new Photo[0]);
+		Photo[] result = getCurrentPhotos();
 		Arrays.sort(result, getPhotoByPraiseReverseComparator());
 		return result;
 	}
@@ -23,13 +23,13 @@ package org.wahlzeit.model;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.utils.IntBitmap;
 
 import javax.servlet.http.HttpSession;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -68,7 +68,7 @@ public class UserSession extends Session implements Serializable {
 			httpSession.setAttribute(SITE_URL, mySiteUrl);
 			httpSession.setAttribute(PHOTO_FILTER, PhotoFactory.getInstance().createPhotoFilter());
 
-			setClient(new Guest());
+			setClient(Guest.createGuest());
 			try {
 				Language language = Language.getFromIsoCode(myLanguage);
 				getClient().setLanguage(language);
@@ -101,7 +101,7 @@ public class UserSession extends Session implements Serializable {
 	 *
 	 */
 	public void clearPraisedPhotos() {
-		httpSession.setAttribute(PRAISED_PHOTOS, new HashSet<Photo>());
+		httpSession.setAttribute(PRAISED_PHOTOS, new IntBitmap());
 	}
 
 	/**
@@ -178,15 +178,52 @@ public class UserSession extends Session implements Serializable {
 	 * @methodtype boolean query
 	 */
 	public boolean hasPraisedPhoto(Photo photo) {
-		Set praisedPhotos = (Set) httpSession.getAttribute(PRAISED_PHOTOS);
+		IntBitmap praisedPhotos = getPraisedPhotos();
 		if (praisedPhotos != null) {
-			return praisedPhotos.contains(photo);
+			return praisedPhotos.contains(photo.getId().asInt());
 		} else {
 			log.warning("Found no set of praised Photos to search for Photo.");
 			return false;
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void addPraisedPhoto(Photo photo) {
+		IntBitmap praisedPhotos = getPraisedPhotos();
+		if (praisedPhotos != null) {
+			praisedPhotos.add(photo.getId().asInt());
+			httpSession.setAttribute(PRAISED_PHOTOS, praisedPhotos);
+		} else {
+			log.warning("Found no set of praised Photos to add Photo.");
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the ids of the praised photos, or null if there are none. Sessions from before the ids were kept in an
+	 * IntBitmap hold a set of photos instead, which is converted.
+	 */
+	protected IntBitmap getPraisedPhotos() {
+		Object praisedPhotos = httpSession.getAttribute(PRAISED_PHOTOS);
+		if (praisedPhotos == null || praisedPhotos instanceof IntBitmap) {
+			return (IntBitmap) praisedPhotos;
+		}
+
+		IntBitmap result = new IntBitmap();
+		if (praisedPhotos instanceof Collection) {
+			for (Object praisedPhoto : (Collection<?>) praisedPhotos) {
+				if (praisedPhoto instanceof Photo) {
+					result.add(((Photo) praisedPhoto).getId().asInt());
+				}
+			}
+		}
+		httpSession.setAttribute(PRAISED_PHOTOS, result);
+		return result;
+	}
+
 	/**
 	 *
 	 */
@@ -22,17 +22,26 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.OfyService;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 
 /**
  * Adapter for the Google Datastore. Use default constructor to create an instance.
@@ -43,22 +52,67 @@ public class DatastoreAdapter extends ImageStorage {
 
 	private static final Logger log = Logger.getLogger(DatastoreAdapter.class.getName());
 
+	/**
+	 * Maximum number of remembered existence checks
+	 */
+	public static final int MAX_EXISTENCE_ENTRIES = 10000;
+
+	/**
+	 * Time (in milliseconds) a negative existence check is remembered, as other instances may write the image
+	 */
+	public static final long NEGATIVE_EXISTENCE_TTL = 60 * 1000;
+
+	/**
+	 * Time (in milliseconds) a positive existence check is remembered, as other instances may delete the image
+	 */
+	public static final long POSITIVE_EXISTENCE_TTL = 10 * 60 * 1000;
+
+	/**
+	 * Remembered existence checks by image id
+	 */
+	protected final LinkedHashMap<String, ExistenceCheck> existenceCache =
+			new LinkedHashMap<String, ExistenceCheck>(16, 0.75f, true) {
+		/**
+		 *
+		 */
+		private static final long serialVersionUID = 42L; // any one does; class never serialized
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ExistenceCheck> eldest) {
+			return size() > MAX_EXISTENCE_ENTRIES;
+		}
+	};
 
 	@Override
 	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
 			throws IOException, InvalidParameterException {
 		if (image instanceof Image) {
-			final ImageWrapper imageWrapper = new ImageWrapper(photoIdAsString + size);
+			final ImageWrapper imageWrapper = new ImageWrapper(asImageId(photoIdAsString, size));
 			imageWrapper.setImage((Image) image);
+			final List<ImageChunk> imageChunks = imageWrapper.createChunks();
 
-			ObjectifyService.run(new Work<Boolean>() {
+			// the wrapper and its chunks share one entity group, so that they are replaced in one transaction
+			ObjectifyService.run(new Work<Void>() {
 				@Override
-				public Boolean run() {
-					OfyService.ofy().save().entity(imageWrapper).now();
-					return null;
+				public Void run() {
+					return OfyService.ofy().transact(new Work<Void>() {
+						@Override
+						public Void run() {
+							List<Key<ImageChunk>> staleChunkKeys = getStaleChunkKeys(imageWrapper);
+							List<Object> entities = new ArrayList<Object>(imageChunks.size() + 1);
+							entities.add(imageWrapper);
+							entities.addAll(imageChunks);
+							OfyService.ofy().save().entities(entities).now();
+							if (!staleChunkKeys.isEmpty()) {
+								OfyService.ofy().delete().keys(staleChunkKeys).now();
+							}
+							return null;
+						}
+					});
 				}
 			});
 
+			setDoesImageExist(imageWrapper.getId(), true);
 			log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
 		} else {
 			log.warning(LogBuilder.createSystemMessage().
@@ -70,16 +124,29 @@ public class DatastoreAdapter extends ImageStorage {
 	@Override
 	protected Image doReadImage(final String photoIdAsString, final int size) throws IOException {
 		Image result = null;
+		final String imageId = asImageId(photoIdAsString, size);
 
-		ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
+		final ImageWrapper imageWrapper = ObjectifyService.run(new Work<ImageWrapper>() {
 			@Override
 			public ImageWrapper run() {
-				return OfyService.ofy().load().type(ImageWrapper.class).id(photoIdAsString + size).now();
+				return OfyService.ofy().load().type(ImageWrapper.class).id(imageId).now();
 			}
 		});
 
+		setDoesImageExist(imageId, imageWrapper != null);
 		if (imageWrapper == null) {
 			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+		} else if (imageWrapper.isChunked()) {
+			Map<Key<ImageChunk>, ImageChunk> imageChunks =
+					ObjectifyService.run(new Work<Map<Key<ImageChunk>, ImageChunk>>() {
+						@Override
+						public Map<Key<ImageChunk>, ImageChunk> run() {
+							return OfyService.ofy().load().keys(imageWrapper.getChunkKeys());
+						}
+					});
+			result = imageWrapper.getImage(imageChunks);
+			log.config(LogBuilder.createSystemMessage().
+					addParameter("image successfully read from chunks", imageChunks.size()).toString());
 		} else {
 			result = imageWrapper.getImage();
 			if (result != null) {
@@ -91,26 +158,80 @@ public class DatastoreAdapter extends ImageStorage {
 		return result;
 	}
 
+	/**
+	 * Checks the existence with a keys-only query, so no image data is loaded. Results are remembered, positive ones
+	 * until evicted and negative ones for a short time.
+	 */
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(
-					LogBuilder.createSystemMessage().addException("IOException when checking for Image existance", e)
-							.toString());
-		}
-		if (image != null) {
-			result = true;
+		final String imageId = asImageId(photoIdAsString, size);
+		Boolean result = getDoesImageExist(imageId);
+		if (result == null) {
+			Key<ImageWrapper> key = ObjectifyService.run(new Work<Key<ImageWrapper>>() {
+				@Override
+				public Key<ImageWrapper> run() {
+					return OfyService.ofy().load().type(ImageWrapper.class).
+							filterKey(Key.create(ImageWrapper.class, imageId)).keys().first().now();
+				}
+			});
+			result = (key != null);
+			setDoesImageExist(imageId, result);
 		}
 		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
 		return result;
 	}
 
 	/**
-	 * Wrapper class to store {@link Image}s in the Google Datastore with Objectify.
+	 * @methodtype get
+	 *
+	 * Returns the keys of chunks left over from a previously stored, larger version of the image.
+	 */
+	protected List<Key<ImageChunk>> getStaleChunkKeys(ImageWrapper imageWrapper) {
+		List<Key<ImageChunk>> result = new ArrayList<Key<ImageChunk>>();
+		for (Key<ImageChunk> chunkKey : OfyService.ofy().load().type(ImageChunk.class).
+				ancestor(imageWrapper).keys().list()) {
+			if (chunkKey.getId() > imageWrapper.getNoChunks()) {
+				result.add(chunkKey);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the remembered existence of the image, or null if it is unknown.
+	 */
+	protected synchronized Boolean getDoesImageExist(String imageId) {
+		ExistenceCheck check = existenceCache.get(imageId);
+		if (check == null) {
+			return null;
+		} else if (check.validUntil > System.currentTimeMillis()) {
+			return check.doesExist;
+		}
+		existenceCache.remove(imageId);
+		return null;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected synchronized void setDoesImageExist(String imageId, boolean doesExist) {
+		long ttl = doesExist ? POSITIVE_EXISTENCE_TTL : NEGATIVE_EXISTENCE_TTL;
+		existenceCache.put(imageId, new ExistenceCheck(doesExist, System.currentTimeMillis() + ttl));
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String asImageId(String photoIdAsString, int size) {
+		return photoIdAsString + size;
+	}
+
+	/**
+	 * Wrapper class to store {@link Image}s in the Google Datastore with Objectify. Images that do not fit into one
+	 * entity are split into {@link ImageChunk} child entities; the wrapper then only holds their number, the image
+	 * size and a CRC32 checksum of the image data.
 	 * 
  	 * @review
 	 */
@@ -118,13 +239,32 @@ public class DatastoreAdapter extends ImageStorage {
 	public static class ImageWrapper {
 
 		// see https://cloud.google.com/datastore/docs/tools/administration
-		public final int maxEntitySize = 1024 * 1024; // = 1 MB
+		public static final int maxEntitySize = 1024 * 1024; // = 1 MB
+
+		/**
+		 * Bytes per chunk, leaving room for the remaining properties of an entity
+		 */
+		public static final int chunkSize = maxEntitySize - 16 * 1024;
+
+		/**
+		 * Upper limit of chunks, so that all chunks of an image can be written with one batch
+		 */
+		public static final int maxNoChunks = 8;
 
 		@Id
 		private String id;
 
 		private byte[] imageData;
 
+		private int noChunks = 0;
+
+		private int noBytes = 0;
+
+		private long checksum = 0;
+
+		@Ignore
+		private transient byte[] chunkedImageData;
+
 		public ImageWrapper() {
 			// just for Objectify to load it from Datastore
 		}
@@ -133,6 +273,27 @@ public class DatastoreAdapter extends ImageStorage {
 			this.id = id;
 		}
 
+		/**
+		 * @methodtype get
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		public boolean isChunked() {
+			return noChunks > 0;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public int getNoChunks() {
+			return noChunks;
+		}
+
 		/**
 		 * @methodtype get
 		 */
@@ -140,18 +301,140 @@ public class DatastoreAdapter extends ImageStorage {
 			return ImagesServiceFactory.makeImage(imageData);
 		}
 
+		/**
+		 * @methodtype get
+		 *
+		 * Reassembles a chunked image and verifies its checksum.
+		 */
+		public Image getImage(Map<Key<ImageChunk>, ImageChunk> imageChunks) throws IOException {
+			byte[] result = new byte[noBytes];
+			int offset = 0;
+			for (Key<ImageChunk> chunkKey : getChunkKeys()) {
+				ImageChunk imageChunk = imageChunks.get(chunkKey);
+				if (imageChunk == null || offset + imageChunk.getData().length > noBytes) {
+					throw new IOException("Missing or invalid chunk " + chunkKey.getId() + " of image " + id);
+				}
+				System.arraycopy(imageChunk.getData(), 0, result, offset, imageChunk.getData().length);
+				offset += imageChunk.getData().length;
+			}
+
+			if (offset != noBytes || getChecksum(result) != checksum) {
+				throw new IOException("Checksum mismatch for chunked image " + id);
+			}
+			return ImagesServiceFactory.makeImage(result);
+		}
+
 		/**
 		 * @methodtype set
 		 *
-		 * Can not handle images >= 1 MB because this is the upper limit of entities in Google Datastore.
+		 * Images that do not fit into one entity are chunked. Can not handle images larger than maxNoChunks chunks.
 		 */
 		public void setImage(Image image) throws ArrayIndexOutOfBoundsException {
-			if(image.getImageData().length >= maxEntitySize) {
-				throw new ArrayIndexOutOfBoundsException("Can not store images >= 1 MB in the Google Datastore.");
+			byte[] data = image.getImageData();
+			if (data.length > chunkSize * maxNoChunks) {
+				throw new ArrayIndexOutOfBoundsException("Can not store images > " + (chunkSize * maxNoChunks) +
+						" bytes in the Google Datastore.");
+			}
+
+			if (data.length <= chunkSize) {
+				imageData = data;
+				chunkedImageData = null;
+				noChunks = 0;
+				noBytes = 0;
+				checksum = 0;
+			} else {
+				imageData = null;
+				chunkedImageData = data;
+				noChunks = (data.length + chunkSize - 1) / chunkSize;
+				noBytes = data.length;
+				checksum = getChecksum(data);
 			}
-			else {
-				imageData = image.getImageData();
+		}
+
+		/**
+		 * @methodtype factory
+		 *
+		 * Creates the chunk entities of the image last set; empty if it fits into the wrapper.
+		 */
+		public List<ImageChunk> createChunks() {
+			List<ImageChunk> result = new ArrayList<ImageChunk>(noChunks);
+			if (chunkedImageData != null) {
+				Key<ImageWrapper> parent = Key.create(ImageWrapper.class, id);
+				for (int i = 0; i < noChunks; i++) {
+					int from = i * chunkSize;
+					int to = Math.min(from + chunkSize, chunkedImageData.length);
+					result.add(new ImageChunk(parent, i + 1, Arrays.copyOfRange(chunkedImageData, from, to)));
+				}
 			}
+			return result;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public List<Key<ImageChunk>> getChunkKeys() {
+			List<Key<ImageChunk>> result = new ArrayList<Key<ImageChunk>>(noChunks);
+			Key<ImageWrapper> parent = Key.create(ImageWrapper.class, id);
+			for (int i = 1; i <= noChunks; i++) {
+				result.add(Key.create(parent, ImageChunk.class, i));
+			}
+			return result;
+		}
+
+		/**
+		 * @methodtype helper
+		 */
+		protected static long getChecksum(byte[] data) {
+			CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+			return crc.getValue();
+		}
+	}
+
+	/**
+	 * One part of a chunked image, stored as child entity of its {@link ImageWrapper}. Ids start at 1.
+	 */
+	@Entity
+	public static class ImageChunk {
+
+		@Parent
+		private Key<ImageWrapper> parent;
+
+		@Id
+		private Long index;
+
+		private byte[] data;
+
+		public ImageChunk() {
+			// just for Objectify to load it from Datastore
+		}
+
+		public ImageChunk(Key<ImageWrapper> parent, long index, byte[] data) {
+			this.parent = parent;
+			this.index = index;
+			this.data = data;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * A remembered existence check of an image and the time until which it is valid.
+	 */
+	protected static class ExistenceCheck {
+
+		protected final boolean doesExist;
+
+		protected final long validUntil;
+
+		protected ExistenceCheck(boolean doesExist, long validUntil) {
+			this.doesExist = doesExist;
+			this.validUntil = validUntil;
 		}
 	}
 }
@@ -35,10 +35,16 @@ import org.wahlzeit.services.SysConfig;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 
 /**
@@ -55,17 +61,25 @@ public class GcsAdapter extends ImageStorage {
 	private String photoFolder;
 	private String defaultImageMimeTypeName;
 	private int bufferLength;
+	private boolean isStreaming;
 	private GcsService gcsService;
 
+	/**
+	 * Reusable buffers for streaming images
+	 */
+	private BlockingQueue<ByteBuffer> bufferPool;
+
 	/**
 	 * Do not use directly, instead use {@link org.wahlzeit.model.persistence.GcsAdapter.Builder} to create an object.
 	 */
 	private GcsAdapter(String bucketName, String photoFolderName, String defaultImageMimeTypeName, int bufferLength,
-					   GcsService gcsService) {
+					   int noPooledBuffers, boolean isStreaming, GcsService gcsService) {
 		this.bucketName = bucketName;
 		this.photoFolder = photoFolderName;
 		this.defaultImageMimeTypeName = defaultImageMimeTypeName;
 		this.bufferLength = bufferLength;
+		this.bufferPool = new ArrayBlockingQueue<ByteBuffer>(noPooledBuffers);
+		this.isStreaming = isStreaming;
 		this.gcsService = gcsService;
 	}
 
@@ -101,20 +115,38 @@ public class GcsAdapter extends ImageStorage {
 		}
 	}
 
+	/**
+	 * Reads the image into a buffer of exactly its size, as given by the file metadata.
+	 */
 	@Override
 	protected Image doReadImage(String filename, int size) throws IOException {
 		GcsFilename gcsFilename = getGcsFileName(filename, size);
 		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
 
-		GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
-		ByteBuffer bb = ByteBuffer.allocate(bufferLength);
 		Image result = null;
-		try {
-			readChannel.read(bb);
-			result = ImagesServiceFactory.makeImage(bb.array());
-		} catch (IOException e) {
-			// when image does not exist, IOException is thrown
+		GcsFileMetadata gcsFileMetadata = gcsService.getMetadata(gcsFilename);
+		if (gcsFileMetadata != null) {
+			if (gcsFileMetadata.getLength() > Integer.MAX_VALUE) {
+				throw new IOException("image too large to be read: " + gcsFilename);
+			}
+
+			ByteBuffer bb = ByteBuffer.allocate((int) gcsFileMetadata.getLength());
+			GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
+			try {
+				while (bb.hasRemaining() && readChannel.read(bb) >= 0) {
+					// read until buffer is full or end of file
+				}
+			} finally {
+				readChannel.close();
+			}
+
+			byte[] imageData = bb.array();
+			if (bb.hasRemaining()) {
+				imageData = Arrays.copyOf(imageData, bb.position());
+			}
+			result = ImagesServiceFactory.makeImage(imageData);
 		}
+
 		if (result == null) {
 			log.warning(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
 		} else {
@@ -123,6 +155,40 @@ public class GcsAdapter extends ImageStorage {
 		return result;
 	}
 
+	/**
+	 * Pipes the image through a pooled buffer into the output stream, without reading it into the heap as a whole.
+	 */
+	@Override
+	protected boolean doStreamImage(String photoIdAsString, int size, OutputStream out) throws IOException {
+		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
+		if (gcsService.getMetadata(gcsFilename) == null) {
+			return false;
+		}
+
+		ByteBuffer bb = takeBuffer();
+		GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
+		try {
+			WritableByteChannel outChannel = Channels.newChannel(out);
+			while (readChannel.read(bb) >= 0) {
+				bb.flip();
+				while (bb.hasRemaining()) {
+					outChannel.write(bb);
+				}
+				bb.clear();
+			}
+			out.flush();
+		} finally {
+			readChannel.close();
+			returnBuffer(bb);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return isStreaming;
+	}
+
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
 		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
@@ -139,6 +205,25 @@ public class GcsAdapter extends ImageStorage {
 	}
 
 
+	/**
+	 * @methodtype get
+	 */
+	private ByteBuffer takeBuffer() {
+		ByteBuffer result = bufferPool.poll();
+		if (result == null) {
+			result = ByteBuffer.allocate(bufferLength);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	private void returnBuffer(ByteBuffer buffer) {
+		buffer.clear();
+		bufferPool.offer(buffer);
+	}
+
 	/**
 	 * Creates a <code>GcsFilename</code> for the photo in the specified size. The name structure is:
 	 *
@@ -158,16 +243,23 @@ public class GcsAdapter extends ImageStorage {
 		private String photoFolderName;
 		private String defaultImageMimeTypeName;
 		private int bufferLength;
+		private int noPooledBuffers;
+		private boolean isStreaming;
 
 		public Builder() {
 			bucketName = SysConfig.DATA_PATH;
 			photoFolderName = "photos";
 			defaultImageMimeTypeName = "image/jpeg";
 			/**
-			 * 1 MB Buffer, does not limit the size of the files. A valid compromise between unused allocation and
-			 * reallocation.
+			 * 64 KB Buffer for streaming, does not limit the size of the files. Reads of whole images are sized
+			 * exactly from the file metadata.
+			 */
+			bufferLength = 64 * 1024;
+			noPooledBuffers = 16;
+			/**
+			 * Read images through the ImageCache instead of streaming them from GCS on every request.
 			 */
-			bufferLength = 1024 * 1024;
+			isStreaming = false;
 			gcsService = GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
 		}
 
@@ -187,12 +279,21 @@ public class GcsAdapter extends ImageStorage {
 			this.bufferLength = bufferLength;
 		}
 
+		public void setNoPooledBuffers(int noPooledBuffers) {
+			this.noPooledBuffers = noPooledBuffers;
+		}
+
+		public void setStreaming(boolean isStreaming) {
+			this.isStreaming = isStreaming;
+		}
+
 		public void setGcsService(GcsService gcsService) {
 			this.gcsService = gcsService;
 		}
 
 		public GcsAdapter build() {
-			return new GcsAdapter(bucketName, photoFolderName, defaultImageMimeTypeName, bufferLength, gcsService);
+			return new GcsAdapter(bucketName, photoFolderName, defaultImageMimeTypeName, bufferLength, noPooledBuffers,
+					isStreaming, gcsService);
 		}
 	}
 }
@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import org.wahlzeit.services.LogBuilder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A bounded in-memory cache for scaled images. Images are read from the {@link ImageStorage} on their first request
+ * and held within a configurable byte budget. The cache is split into independently locked segments, each of which
+ * evicts with a segmented LRU policy: new images enter a probation area and are promoted to a protected area when
+ * requested again, so frequently requested sizes like thumbnails stay resident while one-off requests are evicted
+ * first.
+ */
+public class ImageCache {
+
+	private static final Logger log = Logger.getLogger(ImageCache.class.getName());
+
+	/**
+	 * System property to configure the byte budget, e.g. in appengine-web.xml
+	 */
+	public static final String MAX_BYTES_PROPERTY = "wahlzeit.imageCache.maxBytes";
+
+	/**
+	 * Default byte budget of the whole cache
+	 */
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	/**
+	 * Number of independently locked segments
+	 */
+	public static final int NO_SEGMENTS = 8;
+
+	/**
+	 * Percentage of a segment's budget that is reserved for images that have been requested more than once
+	 */
+	public static final int PROTECTED_PERCENTAGE = 80;
+
+	/**
+	 * Time (in milliseconds) a missing image is remembered, as it may be written by another instance meanwhile
+	 */
+	public static final long MISSING_IMAGE_TTL = 60 * 1000;
+
+	/**
+	 * Number of remembered missing images beyond which all of them are forgotten, to bound their memory
+	 */
+	public static final int MAX_NO_MISSING_IMAGES = 10000;
+
+	/**
+	 *
+	 */
+	protected static final ImageCache instance = new ImageCache(getConfiguredMaxBytes());
+
+	/**
+	 *
+	 */
+	protected final Segment[] segments = new Segment[NO_SEGMENTS];
+
+	/**
+	 *
+	 */
+	protected final AtomicLong hitCount = new AtomicLong(0);
+	protected final AtomicLong missCount = new AtomicLong(0);
+	protected final AtomicLong evictionCount = new AtomicLong(0);
+
+	/**
+	 * Times until which images are known to be missing by key, e.g. sizes that a photo is too small for, so that
+	 * repeated requests for them do not read the ImageStorage each time
+	 */
+	protected final ConcurrentMap<String, Long> missingImages = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageCache(long maxBytes) {
+		for (int i = 0; i < NO_SEGMENTS; i++) {
+			segments[i] = new Segment();
+		}
+		setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static ImageCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static long getConfiguredMaxBytes() {
+		String value = System.getProperty(MAX_BYTES_PROPERTY);
+		if (value != null) {
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException ex) {
+				log.warning(LogBuilder.createSystemMessage().
+						addException("Invalid image cache size, using default", ex).toString());
+			}
+		}
+		return DEFAULT_MAX_BYTES;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the image from the cache or reads it from the ImageStorage on a miss. If the image does not exist, null
+	 * is returned, and the storage is not asked again until MISSING_IMAGE_TTL has passed or the image is put.
+	 */
+	public Image getImage(String photoIdAsString, int size) {
+		Image image = getCachedImage(photoIdAsString, size);
+		if (image == null && !isMissingImage(photoIdAsString, size)) {
+			image = readImage(photoIdAsString, size);
+			if (image != null) {
+				putImage(photoIdAsString, size, image);
+			} else {
+				setMissingImage(photoIdAsString, size);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isMissingImage(String photoIdAsString, int size) {
+		String key = asKey(photoIdAsString, size);
+		Long validUntil = missingImages.get(key);
+		if (validUntil == null) {
+			return false;
+		} else if (validUntil > System.currentTimeMillis()) {
+			return true;
+		}
+		missingImages.remove(key, validUntil);
+		return false;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void setMissingImage(String photoIdAsString, int size) {
+		if (missingImages.size() >= MAX_NO_MISSING_IMAGES) {
+			missingImages.clear();
+		}
+		missingImages.put(asKey(photoIdAsString, size), System.currentTimeMillis() + MISSING_IMAGE_TTL);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Image getCachedImage(String photoIdAsString, int size) {
+		String key = asKey(photoIdAsString, size);
+		Image result = getSegment(key).get(key);
+		if (result != null) {
+			hitCount.incrementAndGet();
+		} else {
+			missCount.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void putImage(String photoIdAsString, int size, Image image) {
+		if (image != null) {
+			String key = asKey(photoIdAsString, size);
+			missingImages.remove(key);
+			int noEvictions = getSegment(key).put(key, image, getWeight(image));
+			evictionCount.addAndGet(noEvictions);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void removeImage(String photoIdAsString, int size) {
+		String key = asKey(photoIdAsString, size);
+		getSegment(key).remove(key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+		missingImages.clear();
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMaxBytes(long newMaxBytes) {
+		long segmentMaxBytes = newMaxBytes / NO_SEGMENTS;
+		for (Segment segment : segments) {
+			evictionCount.addAndGet(segment.setMaxBytes(segmentMaxBytes));
+		}
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("image cache budget in bytes", newMaxBytes).toString());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoImages() {
+		int result = 0;
+		for (Segment segment : segments) {
+			result += segment.getNoImages();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoBytes() {
+		long result = 0;
+		for (Segment segment : segments) {
+			result += segment.getNoBytes();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected Image readImage(String photoIdAsString, int size) {
+		Serializable rawImage = null;
+		try {
+			rawImage = ImageStorage.getInstance().readImage(photoIdAsString, size);
+		} catch (IOException e) {
+			log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+		}
+
+		if (rawImage != null && rawImage instanceof Image) {
+			return (Image) rawImage;
+		}
+		return null;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Segment getSegment(String key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[(hash & 0x7fffffff) % NO_SEGMENTS];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected int getWeight(Image image) {
+		byte[] data = image.getImageData();
+		return (data != null) ? data.length : 0;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String asKey(String photoIdAsString, int size) {
+		return photoIdAsString + "-" + size;
+	}
+
+	/**
+	 * One segment of the cache with its own lock and byte budget. Both areas are kept in access order, so their
+	 * first entry is the least recently used one.
+	 */
+	protected static class Segment {
+
+		/**
+		 *
+		 */
+		protected final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		protected final LinkedHashMap<String, Entry> protectedArea = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+		/**
+		 *
+		 */
+		protected long probationBytes = 0;
+		protected long protectedBytes = 0;
+		protected long maxBytes = 0;
+
+		/**
+		 * @methodtype get
+		 *
+		 * Returns the image and promotes it to the protected area if it was on probation.
+		 */
+		public synchronized Image get(String key) {
+			Entry entry = protectedArea.get(key);
+			if (entry != null) {
+				return entry.image;
+			}
+
+			entry = probation.remove(key);
+			if (entry == null) {
+				return null;
+			}
+			probationBytes -= entry.weight;
+			protectedArea.put(key, entry);
+			protectedBytes += entry.weight;
+			demoteProtected();
+			return entry.image;
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * Adds the image on probation and returns the number of evicted images.
+		 */
+		public synchronized int put(String key, Image image, int weight) {
+			remove(key);
+			if (weight > maxBytes) {
+				return 0;
+			}
+
+			probation.put(key, new Entry(image, weight));
+			probationBytes += weight;
+			return evict();
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		public synchronized void remove(String key) {
+			Entry entry = probation.remove(key);
+			if (entry != null) {
+				probationBytes -= entry.weight;
+			}
+			entry = protectedArea.remove(key);
+			if (entry != null) {
+				protectedBytes -= entry.weight;
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		public synchronized void clear() {
+			probation.clear();
+			protectedArea.clear();
+			probationBytes = 0;
+			protectedBytes = 0;
+		}
+
+		/**
+		 * @methodtype set
+		 */
+		public synchronized int setMaxBytes(long newMaxBytes) {
+			maxBytes = newMaxBytes;
+			demoteProtected();
+			return evict();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public synchronized int getNoImages() {
+			return probation.size() + protectedArea.size();
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		public synchronized long getNoBytes() {
+			return probationBytes + protectedBytes;
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * Moves the least recently used protected images back on probation while the protected area is too large.
+		 */
+		protected void demoteProtected() {
+			long maxProtectedBytes = maxBytes * PROTECTED_PERCENTAGE / 100;
+			Iterator<Map.Entry<String, Entry>> iterator = protectedArea.entrySet().iterator();
+			while (protectedBytes > maxProtectedBytes && iterator.hasNext()) {
+				Map.Entry<String, Entry> eldest = iterator.next();
+				iterator.remove();
+				protectedBytes -= eldest.getValue().weight;
+				probation.put(eldest.getKey(), eldest.getValue());
+				probationBytes += eldest.getValue().weight;
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * Evicts images on probation first and protected images only if the probation area is empty; returns the
+		 * number of evicted images.
+		 */
+		protected int evict() {
+			int result = 0;
+			Iterator<Map.Entry<String, Entry>> iterator = probation.entrySet().iterator();
+			while (probationBytes + protectedBytes > maxBytes && iterator.hasNext()) {
+				probationBytes -= iterator.next().getValue().weight;
+				iterator.remove();
+				result++;
+			}
+
+			iterator = protectedArea.entrySet().iterator();
+			while (probationBytes + protectedBytes > maxBytes && iterator.hasNext()) {
+				protectedBytes -= iterator.next().getValue().weight;
+				iterator.remove();
+				result++;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * A cached image together with its size in bytes
+	 */
+	protected static class Entry {
+
+		/**
+		 *
+		 */
+		protected final Image image;
+		protected final int weight;
+
+		/**
+		 * @methodtype constructor
+		 */
+		protected Entry(Image image, int weight) {
+			this.image = image;
+			this.weight = weight;
+		}
+	}
+
+}
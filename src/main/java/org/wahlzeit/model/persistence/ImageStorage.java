@@ -1,9 +1,11 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.security.InvalidParameterException;
 import java.util.logging.Logger;
@@ -108,6 +110,56 @@ public abstract class ImageStorage {
 			throws IOException;
 
 
+	// stream methods --------------------------------------------------------------------------------------------------
+
+	/**
+	 * Writes the image specified via photoId and size to the output stream. Returns false if the image is not found.
+	 *
+	 * @methodtype command
+	 * @methodproperty wrapper
+	 */
+	public boolean streamImage(String photoIdAsString, int size, OutputStream out)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("stream image from storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("size", size).toString());
+
+		return doStreamImage(photoIdAsString, size, out);
+	}
+
+	/**
+	 * Actually writes the specified image to the output stream. By default the image is read into the heap first.
+	 *
+	 * @methodtype command
+	 * @methodproperty hook
+	 */
+	protected boolean doStreamImage(String photoIdAsString, int size, OutputStream out)
+			throws IOException {
+
+		Serializable image = doReadImage(photoIdAsString, size);
+		if (image instanceof Image) {
+			out.write(((Image) image).getImageData());
+			out.flush();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether streamImage avoids reading images into the heap, so that caching them in memory is not needed
+	 *
+	 * @methodtype boolean query
+	 */
+	public boolean isStreaming() {
+		return false;
+	}
+
+
 	// exist method ----------------------------------------------------------------------------------------------------
 
 	/**
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Logger;
+
+/**
+ * Adapter for the local file system, e.g. for self-hosted deployments and offline benchmarks. Images are stored in
+ * two levels of shard directories derived from the photo id, so that no directory grows too large. Writes go to a
+ * temporary file that is renamed atomically, and reads memory-map the file, so images can be streamed without
+ * copying them into the heap.
+ * Use {@link org.wahlzeit.model.persistence.LocalFileAdapter.Builder} to create an object.
+ */
+public class LocalFileAdapter extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(LocalFileAdapter.class.getName());
+
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private Path rootDirectory;
+	private int noShards;
+
+	/**
+	 * Do not use directly, instead use {@link org.wahlzeit.model.persistence.LocalFileAdapter.Builder} to create an
+	 * object.
+	 */
+	private LocalFileAdapter(Path rootDirectory, int noShards) throws IllegalArgumentException {
+		if (noShards <= 0) {
+			throw new IllegalArgumentException("number of shards must be positive: " + noShards);
+		}
+
+		this.rootDirectory = rootDirectory;
+		this.noShards = noShards;
+	}
+
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			throw new InvalidParameterException("not an Image object!");
+		}
+
+		Path imageFile = getImageFile(photoIdAsString, size);
+		Files.createDirectories(imageFile.getParent());
+		Path tempFile = Files.createTempFile(imageFile.getParent(), imageFile.getFileName().toString(),
+				TEMP_FILE_SUFFIX);
+		try {
+			Files.write(tempFile, ((Image) image).getImageData());
+			try {
+				Files.move(tempFile, imageFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, imageFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("image successfully written", imageFile).toString());
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		Path imageFile = getImageFile(photoIdAsString, size);
+		if (!Files.isRegularFile(imageFile)) {
+			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			return null;
+		}
+
+		MappedByteBuffer mappedImage = mapImageFile(imageFile);
+		byte[] imageData = new byte[mappedImage.remaining()];
+		mappedImage.get(imageData);
+		log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	/**
+	 * Writes the memory-mapped file to the output stream, without copying the image into the heap.
+	 */
+	@Override
+	protected boolean doStreamImage(String photoIdAsString, int size, OutputStream out) throws IOException {
+		Path imageFile = getImageFile(photoIdAsString, size);
+		if (!Files.isRegularFile(imageFile)) {
+			return false;
+		}
+
+		ByteBuffer mappedImage = mapImageFile(imageFile);
+		WritableByteChannel outChannel = Channels.newChannel(out);
+		while (mappedImage.hasRemaining()) {
+			outChannel.write(mappedImage);
+		}
+		out.flush();
+		return true;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return true;
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = Files.isRegularFile(getImageFile(photoIdAsString, size));
+		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		return result;
+	}
+
+
+	/**
+	 * @methodtype helper
+	 */
+	private MappedByteBuffer mapImageFile(Path imageFile) throws IOException {
+		FileChannel channel = FileChannel.open(imageFile, StandardOpenOption.READ);
+		try {
+			// the mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Creates the path of the photo in the specified size. The path structure is:
+	 *
+	 * rootDirectory/shard/shard/photoIdAsString-size
+	 *
+	 * @methodtype get
+	 */
+	protected Path getImageFile(String photoIdAsString, int size) {
+		int hash = photoIdAsString.hashCode();
+		hash ^= (hash >>> 16);
+		int shard = (hash & 0x7fffffff) % (noShards * noShards);
+		return rootDirectory.
+				resolve(Integer.toHexString(shard / noShards)).
+				resolve(Integer.toHexString(shard % noShards)).
+				resolve(photoIdAsString + "-" + size);
+	}
+
+
+	public static class Builder {
+		private Path rootDirectory;
+		private int noShards;
+
+		public Builder() {
+			rootDirectory = Paths.get(SysConfig.getPhotosDir().asString());
+			/**
+			 * 256 * 256 leaf directories keep directories small for millions of images.
+			 */
+			noShards = 256;
+		}
+
+		public void setRootDirectory(Path rootDirectory) {
+			this.rootDirectory = rootDirectory;
+		}
+
+		public void setNoShards(int noShards) {
+			this.noShards = noShards;
+		}
+
+		public LocalFileAdapter build() throws IllegalArgumentException {
+			return new LocalFileAdapter(rootDirectory, noShards);
+		}
+	}
+}
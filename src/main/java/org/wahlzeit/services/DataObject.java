@@ -24,6 +24,8 @@ import java.io.Serializable;
 
 /**
  * A simple abstract implementation of Persistent with write count and dirty bit.
+ * Subclasses may tell apart the aspects that have changed by passing a bit mask of aspects to incWriteCount, so that
+ * dependent writes can be limited to what actually changed. Changes without an aspect mark all aspects as dirty.
  * Also defines (but does not use) the field "ID" for subclass use.
  */
 public abstract class DataObject implements Persistent, Serializable {
@@ -33,11 +35,21 @@ public abstract class DataObject implements Persistent, Serializable {
 	 */
 	public static final String ID = "id";
 
+	/**
+	 * Aspect mask of a change whose aspect is unknown
+	 */
+	public static final int ALL_ASPECTS = ~0;
+
 	/**
 	 *
 	 */
 	protected transient int writeCount = 0;
 
+	/**
+	 * Bit mask of the aspects that have changed since the last write
+	 */
+	protected transient int dirtyAspects = 0;
+
 	/**
 	 *
 	 */
@@ -45,18 +57,53 @@ public abstract class DataObject implements Persistent, Serializable {
 		return writeCount != 0;
 	}
 
+	/**
+	 * Synchronized like the methods that change the aspects, so that it sees changes of other threads.
+	 */
+	public final synchronized boolean isDirty(int aspects) {
+		return (dirtyAspects & aspects) != 0;
+	}
+
 	/**
 	 *
 	 */
-	public final void resetWriteCount() {
+	public final synchronized void resetWriteCount() {
 		writeCount = 0;
+		dirtyAspects = 0;
+	}
+
+	/**
+	 *
+	 */
+	public final synchronized int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 *
+	 */
+	public final synchronized boolean resetWriteCount(int expectedWriteCount) {
+		if (writeCount != expectedWriteCount) {
+			return false;
+		}
+
+		resetWriteCount();
+		return true;
 	}
 
 	/**
 	 *
 	 */
 	public final void incWriteCount() {
+		incWriteCount(ALL_ASPECTS);
+	}
+
+	/**
+	 *
+	 */
+	public final synchronized void incWriteCount(int aspects) {
 		writeCount++;
+		dirtyAspects |= aspects;
 	}
 
 	/**
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An IdSequence hands out unique ids from blocks that it reserves from a BlockSource, e.g. with one transactional
+ * update of a shared counter, so that several instances can hand out ids without a shared write per id. Within a
+ * block, ids are handed out lock-free. Until a BlockSource is set, blocks are reserved from a local counter.
+ */
+public class IdSequence {
+
+	/**
+	 * Reserves blocks of ids
+	 */
+	public interface BlockSource {
+
+		/**
+		 * Reserves the given number of consecutive ids and returns the first one.
+		 */
+		long reserveBlock(int blockSize);
+	}
+
+	/**
+	 * A reserved range of ids; ids are handed out while nextId does not exceed lastId
+	 */
+	protected static class Block {
+
+		/**
+		 *
+		 */
+		protected final AtomicLong nextId;
+		protected final long lastId;
+
+		/**
+		 * @methodtype constructor
+		 */
+		protected Block(long firstId, long lastId) {
+			this.nextId = new AtomicLong(firstId);
+			this.lastId = lastId;
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected static final Block EMPTY_BLOCK = new Block(1, 0);
+
+	/**
+	 *
+	 */
+	protected final int blockSize;
+
+	/**
+	 *
+	 */
+	protected volatile BlockSource blockSource = null;
+	protected volatile Block block = EMPTY_BLOCK;
+
+	/**
+	 * Counter for blocks as long as no BlockSource is set
+	 */
+	protected final AtomicLong lastLocalId = new AtomicLong(0);
+
+	/**
+	 * Highest id that has been handed out
+	 */
+	protected final AtomicLong lastIssuedId = new AtomicLong(0);
+
+	/**
+	 * @methodtype constructor
+	 */
+	public IdSequence(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNextId() {
+		while (true) {
+			Block current = block;
+			long result = current.nextId.getAndIncrement();
+			if (result <= current.lastId) {
+				updateLastIssuedId(result);
+				return result;
+			}
+			reserveBlock(current);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLastIssuedId() {
+		return lastIssuedId.get();
+	}
+
+	/**
+	 * @methodtype set
+	 *
+	 * Drops the current block and continues after lastId, with blocks from the source (or local blocks if null).
+	 */
+	public synchronized void reset(long lastId, BlockSource newBlockSource) {
+		lastLocalId.set(lastId);
+		lastIssuedId.set(lastId);
+		blockSource = newBlockSource;
+		block = EMPTY_BLOCK;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Replaces the exhausted block, unless another thread already did.
+	 */
+	protected synchronized void reserveBlock(Block exhausted) {
+		if (block != exhausted) {
+			return;
+		}
+
+		long firstId;
+		if (blockSource != null) {
+			firstId = blockSource.reserveBlock(blockSize);
+		} else {
+			firstId = lastLocalId.getAndAdd(blockSize) + 1;
+		}
+		block = new Block(firstId, firstId + blockSize - 1);
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void updateLastIssuedId(long id) {
+		long last = lastIssuedId.get();
+		while (id > last && !lastIssuedId.compareAndSet(last, id)) {
+			last = lastIssuedId.get();
+		}
+	}
+
+}
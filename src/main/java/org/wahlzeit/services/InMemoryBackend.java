@@ -0,0 +1,642 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Key;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concurrent PersistenceBackend that keeps all entities in memory, e.g. for load tests of the model without the
+ * App Engine stubs. Entities are kept per @Entity class by their @Id; missing Long ids are allocated on write like in
+ * the datastore. Properties are matched by field name.
+ *
+ * Like the datastore, the backend stores copies of the entities it is given and hands out copies of the ones it
+ * holds, so that callers can neither change stored entities nor see each other's changes; entities are copied by
+ * serializing them. Queries by property look up the ids of matching entities in an index of the property, which is
+ * built when the property is first queried and then kept up to date on each write and delete. Every operation can be
+ * delayed by a configurable latency to simulate the round trip to a datastore.
+ */
+public class InMemoryBackend extends PersistenceBackend {
+
+	/**
+	 * Entities by @Entity class
+	 */
+	protected final ConcurrentMap<Class<?>, EntityTable> tables = new ConcurrentHashMap<Class<?>, EntityTable>();
+
+	/**
+	 * Source of allocated ids
+	 */
+	protected final AtomicLong lastAllocatedId = new AtomicLong(0);
+
+	/**
+	 * Reflected fields by class and name
+	 */
+	protected final ConcurrentMap<String, Field> fieldCache = new ConcurrentHashMap<String, Field>();
+
+	/**
+	 * Injected latency per operation in microseconds
+	 */
+	protected volatile long latency = 0;
+
+	/**
+	 * @methodtype set
+	 */
+	public void setLatency(long newLatency, TimeUnit unit) {
+		latency = unit.toMicros(newLatency);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		tables.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoEntities() {
+		int result = 0;
+		for (EntityTable table : tables.values()) {
+			result += table.entities.size();
+		}
+		return result;
+	}
+
+	@Override
+	public <E> E read(Class<E> type, Long id) {
+		return doRead(type, String.valueOf(id));
+	}
+
+	@Override
+	public <E> E read(Class<E> type, String id) {
+		return doRead(type, id);
+	}
+
+	@Override
+	public <E> E readFirst(Class<E> type, Key ancestor, String propertyName, Object value) {
+		simulateLatency();
+		for (Object entity : getCandidates(type, propertyName, value)) {
+			if (isMatch(type, entity, ancestor, propertyName, value)) {
+				return type.cast(copy(entity));
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public <E> List<E> readAll(Class<E> type, Key ancestor) {
+		simulateLatency();
+		List<E> result = new ArrayList<E>();
+		for (Object entity : getTable(type).entities.values()) {
+			if (isMatch(type, entity, ancestor, null, null)) {
+				result.add(type.cast(copy(entity)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Cursors are the id of the last entity of the previous page.
+	 */
+	@Override
+	public <E> String readPage(Collection<E> result, Class<E> type, Key ancestor, String startCursor, int pageSize) {
+		simulateLatency();
+		ConcurrentNavigableMap<String, Object> typeEntities = getTable(type).entities;
+		if (startCursor != null) {
+			typeEntities = typeEntities.tailMap(startCursor, false);
+		}
+
+		int noLoadedObjects = 0;
+		for (Map.Entry<String, Object> entry : typeEntities.entrySet()) {
+			if (isMatch(type, entry.getValue(), ancestor, null, null)) {
+				result.add(type.cast(copy(entry.getValue())));
+				noLoadedObjects++;
+				if (noLoadedObjects == pageSize) {
+					return entry.getKey();
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public <E> List<E> query(Class<E> type, Key ancestor, String propertyName, Object value) {
+		simulateLatency();
+		List<E> result = new ArrayList<E>();
+		for (Object entity : getCandidates(type, propertyName, value)) {
+			if (isMatch(type, entity, ancestor, propertyName, value)) {
+				result.add(type.cast(copy(entity)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Transactions are serialized; single operations outside of them are not isolated.
+	 */
+	@Override
+	public synchronized <R> R transact(Work<R> work) {
+		return work.run();
+	}
+
+	@Override
+	public void write(Object entity) {
+		simulateLatency();
+		doWrite(entity);
+	}
+
+	@Override
+	public void writeAll(Collection<?> entities) {
+		simulateLatency();
+		for (Object entity : entities) {
+			doWrite(entity);
+		}
+	}
+
+	@Override
+	public void delete(Object entity) {
+		simulateLatency();
+		Object id = getFieldValue(entity, getIdField(entity.getClass()));
+		if (id != null) {
+			getTable(entity.getClass()).remove(String.valueOf(id));
+		}
+	}
+
+	@Override
+	public void deleteAll(Collection<?> entities) {
+		for (Object entity : entities) {
+			delete(entity);
+		}
+	}
+
+	@Override
+	public <E> int deleteAll(Class<E> type, Key ancestor, String propertyName, Collection<?> values) {
+		simulateLatency();
+		int result = 0;
+		EntityTable table = getTable(type);
+		for (Object value : values) {
+			for (Object entity : getCandidates(type, propertyName, value)) {
+				if (isMatch(type, entity, ancestor, propertyName, value) && table.remove(getId(entity), entity)) {
+					result++;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Entities are stored by id only, so moving them just sets their new parent.
+	 */
+	@Override
+	public void moveToEntityGroups(Collection<? extends EntityGroupMember> entities) {
+		simulateLatency();
+		for (EntityGroupMember entity : entities) {
+			entity.setEntityGroupKey(ObjectManager.getEntityGroupKey(entity.getShardingValue()));
+			doWrite(entity);
+		}
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected <E> E doRead(Class<E> type, String id) {
+		simulateLatency();
+		Object entity = getTable(type).entities.get(id);
+		return type.isInstance(entity) ? type.cast(copy(entity)) : null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Allocates a missing id in the given entity, like the datastore does, but stores a copy of it.
+	 */
+	protected void doWrite(Object entity) {
+		Field idField = getIdField(entity.getClass());
+		Object id = getFieldValue(entity, idField);
+		if (id == null) {
+			if (idField.getType() != Long.class && idField.getType() != long.class) {
+				throw new IllegalArgumentException("entity without id: " + entity);
+			}
+			id = lastAllocatedId.incrementAndGet();
+			setFieldValue(entity, idField, id);
+		}
+		getTable(entity.getClass()).put(String.valueOf(id), copy(entity));
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the stored entities of the type that may have the value as property, in the order of their ids: those
+	 * listed in the index of the property, or all of them if no property is given.
+	 */
+	protected Collection<Object> getCandidates(Class<?> type, String propertyName, Object value) {
+		EntityTable table = getTable(type);
+		if (propertyName == null || value == null) {
+			return table.entities.values();
+		}
+
+		List<Object> result = new ArrayList<Object>();
+		for (String id : table.getIds(propertyName, value)) {
+			Object entity = table.entities.get(id);
+			if (entity != null) {
+				result.add(entity);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Copies the entity by serializing and deserializing it.
+	 */
+	protected Object copy(Object entity) {
+		if (!(entity instanceof Serializable)) {
+			throw new IllegalArgumentException("entity is not serializable: " + entity);
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(entity);
+			out.close();
+
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+			return in.readObject();
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex);
+		} catch (ClassNotFoundException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * Checks the type, the ancestor, and the property if propertyName is not null. A multi-valued property matches if
+	 * it contains the value, an embedded object if one of its fields has the value.
+	 */
+	protected boolean isMatch(Class<?> type, Object entity, Key ancestor, String propertyName, Object value) {
+		if (!type.isInstance(entity) || !hasAncestor(entity, ancestor)) {
+			return false;
+		}
+		if (propertyName == null) {
+			return true;
+		}
+
+		Field field = getField(entity.getClass(), propertyName);
+		if (field == null) {
+			return false;
+		}
+
+		Object fieldValue = getFieldValue(entity, field);
+		if (fieldValue == null) {
+			return value == null;
+		}
+		return getPropertyValues(entity, propertyName).contains(value);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the values a query for the property matches: the value of the field, the elements of a multi-valued
+	 * property, and the non-null fields of an embedded object.
+	 */
+	protected Collection<Object> getPropertyValues(Object entity, String propertyName) {
+		Field field = getField(entity.getClass(), propertyName);
+		Object fieldValue = (field != null) ? getFieldValue(entity, field) : null;
+		if (fieldValue == null) {
+			return Collections.emptyList();
+		}
+
+		List<Object> result = new ArrayList<Object>();
+		result.add(fieldValue);
+		if (fieldValue instanceof Collection) {
+			result.addAll((Collection<?>) fieldValue);
+		} else if (!isSimpleValue(fieldValue)) {
+			for (Field embeddedField : getAllFields(fieldValue.getClass())) {
+				Object embeddedValue = getFieldValue(fieldValue, embeddedField);
+				if (embeddedValue != null) {
+					result.add(embeddedValue);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean hasAncestor(Object entity, Key ancestor) {
+		if (ancestor == null) {
+			return true;
+		}
+
+		Field parentField = getParentField(entity.getClass());
+		Object parent = (parentField != null) ? getFieldValue(entity, parentField) : null;
+		for (Key key = (parent instanceof Key) ? (Key) parent : null; key != null; key = key.getParent()) {
+			if (key.equals(ancestor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isSimpleValue(Object value) {
+		return value instanceof String || value instanceof Number || value instanceof Boolean ||
+				value instanceof Enum || value.getClass().isArray();
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the table of the @Entity class of the type, which may be a @Subclass.
+	 */
+	protected EntityTable getTable(Class<?> type) {
+		Class<?> entityClass = getEntityClass(type);
+		EntityTable result = tables.get(entityClass);
+		if (result == null) {
+			tables.putIfAbsent(entityClass, new EntityTable());
+			result = tables.get(entityClass);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected String getId(Object entity) {
+		return String.valueOf(getFieldValue(entity, getIdField(entity.getClass())));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Class<?> getEntityClass(Class<?> type) {
+		for (Class<?> clazz = type; clazz != null; clazz = clazz.getSuperclass()) {
+			if (clazz.isAnnotationPresent(Entity.class)) {
+				return clazz;
+			}
+		}
+		return type;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Field getIdField(Class<?> type) {
+		Field result = getAnnotatedField(type, Id.class);
+		if (result == null) {
+			throw new IllegalArgumentException("no @Id field in " + type);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Field getParentField(Class<?> type) {
+		return getAnnotatedField(type, Parent.class);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Field getAnnotatedField(Class<?> type, Class<? extends java.lang.annotation.Annotation> annotation) {
+		String cacheKey = type.getName() + "@" + annotation.getSimpleName();
+		Field result = fieldCache.get(cacheKey);
+		if (result == null) {
+			for (Field field : getAllFields(type)) {
+				if (field.isAnnotationPresent(annotation)) {
+					fieldCache.putIfAbsent(cacheKey, field);
+					return field;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Field getField(Class<?> type, String name) {
+		String cacheKey = type.getName() + "." + name;
+		Field result = fieldCache.get(cacheKey);
+		if (result == null) {
+			for (Field field : getAllFields(type)) {
+				if (field.getName().equals(name)) {
+					fieldCache.putIfAbsent(cacheKey, field);
+					return field;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected List<Field> getAllFields(Class<?> type) {
+		List<Field> result = new ArrayList<Field>();
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			for (Field field : clazz.getDeclaredFields()) {
+				field.setAccessible(true);
+				result.add(field);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Object getFieldValue(Object object, Field field) {
+		try {
+			return field.get(object);
+		} catch (IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	protected void setFieldValue(Object object, Field field, Object value) {
+		try {
+			field.set(object, value);
+		} catch (IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * The entities of one @Entity class by id, and the indexes of the properties they have been queried by. Reads
+	 * neither lock nor copy; changes are serialized, so that each index matches the entities.
+	 */
+	protected class EntityTable {
+
+		protected final ConcurrentNavigableMap<String, Object> entities = new ConcurrentSkipListMap<String, Object>();
+
+		/**
+		 * Ids of the entities by property name and property value
+		 */
+		protected final ConcurrentMap<String, ConcurrentMap<Object, Set<String>>> indexes =
+				new ConcurrentHashMap<String, ConcurrentMap<Object, Set<String>>>();
+
+		/**
+		 * @methodtype command
+		 */
+		protected synchronized void put(String id, Object entity) {
+			Object oldEntity = entities.put(id, entity);
+			for (Map.Entry<String, ConcurrentMap<Object, Set<String>>> index : indexes.entrySet()) {
+				if (oldEntity != null) {
+					removeFromIndex(index.getValue(), id, getPropertyValues(oldEntity, index.getKey()));
+				}
+				addToIndex(index.getValue(), id, getPropertyValues(entity, index.getKey()));
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected synchronized boolean remove(String id) {
+			Object entity = entities.get(id);
+			return (entity != null) && remove(id, entity);
+		}
+
+		/**
+		 * @methodtype command
+		 *
+		 * Removes the entity with the id only if it still is the given one.
+		 */
+		protected synchronized boolean remove(String id, Object entity) {
+			if (!entities.remove(id, entity)) {
+				return false;
+			}
+
+			for (Map.Entry<String, ConcurrentMap<Object, Set<String>>> index : indexes.entrySet()) {
+				removeFromIndex(index.getValue(), id, getPropertyValues(entity, index.getKey()));
+			}
+			return true;
+		}
+
+		/**
+		 * @methodtype get
+		 */
+		protected Set<String> getIds(String propertyName, Object value) {
+			ConcurrentMap<Object, Set<String>> index = indexes.get(propertyName);
+			if (index == null) {
+				index = createIndex(propertyName);
+			}
+
+			Set<String> result = index.get(value);
+			return (result != null) ? result : Collections.<String>emptySet();
+		}
+
+		/**
+		 * @methodtype factory
+		 */
+		protected synchronized ConcurrentMap<Object, Set<String>> createIndex(String propertyName) {
+			ConcurrentMap<Object, Set<String>> result = indexes.get(propertyName);
+			if (result == null) {
+				result = new ConcurrentHashMap<Object, Set<String>>();
+				for (Map.Entry<String, Object> entry : entities.entrySet()) {
+					addToIndex(result, entry.getKey(), getPropertyValues(entry.getValue(), propertyName));
+				}
+				indexes.put(propertyName, result);
+			}
+			return result;
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void addToIndex(ConcurrentMap<Object, Set<String>> index, String id, Collection<Object> values) {
+			for (Object value : values) {
+				Set<String> ids = index.get(value);
+				if (ids == null) {
+					ids = new ConcurrentSkipListSet<String>();
+					index.put(value, ids);
+				}
+				ids.add(id);
+			}
+		}
+
+		/**
+		 * @methodtype command
+		 */
+		protected void removeFromIndex(ConcurrentMap<Object, Set<String>> index, String id, Collection<Object> values) {
+			for (Object value : values) {
+				Set<String> ids = index.get(value);
+				if (ids != null) {
+					ids.remove(id);
+					if (ids.isEmpty()) {
+						index.remove(value);
+					}
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void simulateLatency() {
+		long delay = latency;
+		if (delay > 0) {
+			try {
+				TimeUnit.MICROSECONDS.sleep(delay);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -23,23 +23,157 @@ package org.wahlzeit.services;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 
 /**
- * An ObjectManager creates/reads/updates/deletes Persistent (objects) from Google Datastore.
- * It is an abstract superclass that relies on an inheritance interface and the Persistent interface.
+ * An ObjectManager creates/reads/updates/deletes Persistent (objects) from Google Datastore, or from whichever
+ * PersistenceBackend has been set. It is an abstract superclass that relies on an inheritance interface and the
+ * Persistent interface.
  */
 public abstract class ObjectManager {
 
 	/**
-	 * All objects are now saved under this root key. In case of multi-tenancy this may change to several keys.
+	 * All objects used to be saved under this root key, which makes them one entity group. It is still used if there
+	 * is only one entity group, and queries still include it for entities that have not been migrated yet.
 	 */
 	public static final Key applicationRootKey = KeyFactory.createKey("Application", "Wahlzeit");
 
 	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
 
+	/**
+	 * System property to configure the number of entity groups, e.g. in appengine-web.xml
+	 */
+	public static final String NO_ENTITY_GROUPS_PROPERTY = "wahlzeit.noEntityGroups";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_ENTITY_GROUPS = 1;
+
+	/**
+	 * Root keys of the entity groups that EntityGroupMembers are spread over by the hash of their sharding value
+	 */
+	protected static final List<Key> entityGroupKeys = createEntityGroupKeys(getConfiguredNoEntityGroups());
+
+	/**
+	 * Ancestors of all queries: the entity groups plus the former application root
+	 */
+	protected static final List<Key> queryAncestorKeys = createQueryAncestorKeys(entityGroupKeys);
+
+	/**
+	 * Maximum number of entities that are written to the datastore with one batch put.
+	 */
+	public static final int WRITE_BATCH_SIZE = 500;
+
+	/**
+	 * @methodtype get
+	 */
+	protected PersistenceBackend getBackend() {
+		return PersistenceBackend.getInstance();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static int getConfiguredNoEntityGroups() {
+		String value = System.getProperty(NO_ENTITY_GROUPS_PROPERTY);
+		if (value != null) {
+			try {
+				return Math.max(1, Integer.parseInt(value.trim()));
+			} catch (NumberFormatException ex) {
+				log.warning(LogBuilder.createSystemMessage().
+						addException("Invalid number of entity groups, using default", ex).toString());
+			}
+		}
+		return DEFAULT_NO_ENTITY_GROUPS;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static List<Key> createEntityGroupKeys(int noEntityGroups) {
+		List<Key> result = new ArrayList<Key>(noEntityGroups);
+		if (noEntityGroups == 1) {
+			result.add(applicationRootKey);
+		} else {
+			for (int i = 0; i < noEntityGroups; i++) {
+				result.add(KeyFactory.createKey("Application", "Wahlzeit-" + i));
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static List<Key> createQueryAncestorKeys(List<Key> entityGroupKeys) {
+		List<Key> result = new ArrayList<Key>(entityGroupKeys);
+		if (!result.contains(applicationRootKey)) {
+			result.add(applicationRootKey);
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the root key of the entity group for the sharding value, e.g. the id of a photo.
+	 */
+	public static Key getEntityGroupKey(Object shardingValue) {
+		int hash = (shardingValue != null) ? shardingValue.hashCode() : 0;
+		return entityGroupKeys.get((hash & 0x7fffffff) % entityGroupKeys.size());
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the ancestors to query for entities of the sharding value: its entity group and the former application
+	 * root, which still holds entities that have not been migrated yet.
+	 */
+	protected static List<Key> getQueryAncestorKeys(Object shardingValue) {
+		Key entityGroupKey = getEntityGroupKey(shardingValue);
+		if (entityGroupKey.equals(applicationRootKey)) {
+			return Collections.singletonList(applicationRootKey);
+		}
+		return Arrays.asList(entityGroupKey, applicationRootKey);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public static boolean hasSeveralEntityGroups() {
+		return entityGroupKeys.size() > 1;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Moves at most batchSize entities of the type from the former application root to their entity groups and
+	 * returns the moved entities; none means that there is nothing left to move.
+	 */
+	protected <E extends EntityGroupMember> List<E> moveToEntityGroups(Class<E> type, int batchSize) {
+		assertIsNonNullArgument(type, "type");
+
+		List<E> entities = new ArrayList<E>();
+		if (!hasSeveralEntityGroups()) {
+			return entities;
+		}
+
+		getBackend().readPage(entities, type, applicationRootKey, null, batchSize);
+		if (!entities.isEmpty()) {
+			getBackend().moveToEntityGroups(entities);
+			log.info(LogBuilder.createSystemMessage().
+					addAction("move to entity groups").
+					addParameter("type", type.getSimpleName()).
+					addParameter("number of entities", entities.size()).toString());
+		}
+		return entities;
+	}
 
 	/**
 	 * Reads the first Entity with the given key in the Datastore
@@ -50,7 +184,7 @@ public abstract class ObjectManager {
 
 		log.config(LogBuilder.createSystemMessage().
 				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		return getBackend().read(type, id);
 	}
 
 	/**
@@ -71,7 +205,7 @@ public abstract class ObjectManager {
 
 		log.config(LogBuilder.createSystemMessage().
 				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		return getBackend().read(type, id);
 	}
 
 	/**
@@ -87,8 +221,7 @@ public abstract class ObjectManager {
 				addMessage("Load Type " + type.toString() + " with parameter " +
 						parameterName + " == " + value + " from datastore.").toString());
 
-		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
-				.now();
+		return getBackend().readFirst(type, queryAncestorKeys, parameterName, value);
 	}
 
 	/**
@@ -100,17 +233,67 @@ public abstract class ObjectManager {
 
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("Datastore: load all entities of type", type.getName()).toString());
-		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
+		List<E> objects = getBackend().readAll(type, queryAncestorKeys);
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("Datastore: number of loaded objects", objects.size()).toString());
 		result.addAll(objects);
 	}
 
+	/**
+	 * Reads one page of at most pageSize entities of the specified type, starting at the given cursor (null for the
+	 * first page). Returns the cursor of the next page, or null if all entities have been read. Pages are read from
+	 * one entity group after the other; the cursor is the index of the group followed by the cursor within it.
+	 */
+	protected <E> String readObjectPage(Collection<E> result, Class<E> type, String startCursor, int pageSize) {
+		assertIsNonNullArgument(result, "result");
+		assertIsNonNullArgument(type, "type");
+
+		int ancestorIndex = 0;
+		String ancestorCursor = null;
+		if (startCursor != null) {
+			int separator = startCursor.indexOf(':');
+			ancestorIndex = Integer.parseInt(startCursor.substring(0, separator));
+			// an empty cursor starts at the beginning of the group
+			ancestorCursor = (separator + 1 < startCursor.length()) ? startCursor.substring(separator + 1) : null;
+		}
+
+		int noObjectsBefore = result.size();
+		Key ancestor = queryAncestorKeys.get(ancestorIndex);
+		ancestorCursor = getBackend().readPage(result, type, ancestor, ancestorCursor, pageSize);
+		String nextCursor = null;
+		if (ancestorCursor != null) {
+			nextCursor = ancestorIndex + ":" + ancestorCursor;
+		} else if (ancestorIndex + 1 < queryAncestorKeys.size()) {
+			nextCursor = (ancestorIndex + 1) + ":";
+		}
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Datastore: number of objects in page", result.size() - noObjectsBefore).toString());
+		return nextCursor;
+	}
+
 	/**
 	 * Reads all Entities of the specified type, where the given property matches the wanted value e.g.
 	 * readObject(User.class) to get a list of all clients
 	 */
 	protected <E> void readObjects(Collection<E> result, Class<E> type, String propertyName, Object value) {
+		readObjectsBelow(result, type, propertyName, value, queryAncestorKeys);
+	}
+
+	/**
+	 * Reads all entities of the specified type with the sharding value where the given property matches the wanted
+	 * value, e.g. the tags of a photo. Only the entity group of the sharding value and the former application root are
+	 * queried instead of all entity groups.
+	 */
+	protected <E> void readObjects(Collection<E> result, Class<E> type, String propertyName, Object value,
+			Object shardingValue) {
+		readObjectsBelow(result, type, propertyName, value, getQueryAncestorKeys(shardingValue));
+	}
+
+	/**
+	 * Reads all entities of the specified type below the ancestors where the given property matches the wanted value.
+	 */
+	protected <E> void readObjectsBelow(Collection<E> result, Class<E> type, String propertyName, Object value,
+			List<Key> ancestors) {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(propertyName, "propertyName");
@@ -119,8 +302,7 @@ public abstract class ObjectManager {
 		log.info(LogBuilder.createSystemMessage().
 				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
 						+ propertyName + " = " + value.toString() + " from datastore.").toString());
-		List<E> objects = OfyService.ofy().load().type(type).
-				ancestor(applicationRootKey).filter(propertyName, value).list();
+		List<E> objects = getBackend().query(type, ancestors, propertyName, value);
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("Datastore: number of loaded objects", objects.size()).toString());
 		result.addAll(objects);
@@ -130,9 +312,7 @@ public abstract class ObjectManager {
 	 * Updates all entities of the given collection in the datastore.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
-		for (Persistent object : collection) {
-			updateObject(object);
-		}
+		writeObjects(collection);
 	}
 
 	/**
@@ -142,6 +322,15 @@ public abstract class ObjectManager {
 		writeObject(object);
 	}
 
+	/**
+	 * Schedules the given entity to be written to the datastore by the write-behind queue. Use this instead of
+	 * updateObject when the caller does not need the entity to be persisted before it continues.
+	 */
+	protected void scheduleObjectUpdate(Persistent object) {
+		assertIsNonNullArgument(object, "object");
+		WriteBehindQueue.getInstance().enqueue(this, object);
+	}
+
 	/**
 	 * Writes the given entity to the datastore.
 	 */
@@ -151,15 +340,113 @@ public abstract class ObjectManager {
 		if (object.isDirty()) {
 			log.info(LogBuilder.createSystemMessage().
 					addParameter("Datastore: Write object of type", object).toString());
-			OfyService.ofy().save().entity(object).now();
+			int writeCount = object.getWriteCount();
+			if (!moveMisplacedObjects(Collections.singletonList(object)).isEmpty()) {
+				getBackend().write(object);
+			}
 			updateDependents(object);
-			object.resetWriteCount();
+			resetWriteCount(object, writeCount);
 		} else {
 			log.info(LogBuilder.createSystemMessage().
 					addParameter("Datastore: No need to update object", object).toString());
 		}
 	}
 
+	/**
+	 * Writes all dirty entities of the given collection to the datastore. Instead of one round trip per entity, the
+	 * dirty entities are collected in chunks of WRITE_BATCH_SIZE and each chunk is saved with one batch put.
+	 */
+	protected void writeObjects(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		int noWrittenObjects = 0;
+		List<Persistent> chunk = new ArrayList<Persistent>();
+		for (Persistent object : collection) {
+			if (object != null && object.isDirty()) {
+				chunk.add(object);
+				if (chunk.size() == WRITE_BATCH_SIZE) {
+					writeChunk(chunk);
+					noWrittenObjects += chunk.size();
+					chunk = new ArrayList<Persistent>();
+				}
+			}
+		}
+
+		if (!chunk.isEmpty()) {
+			writeChunk(chunk);
+			noWrittenObjects += chunk.size();
+		}
+
+		log.info(LogBuilder.createSystemMessage().
+				addParameter("Datastore: number of batch written objects", noWrittenObjects).toString());
+	}
+
+	/**
+	 * Saves one chunk of dirty entities with a single batch put, then updates their dependents in bulk.
+	 */
+	protected void writeChunk(List<? extends Persistent> chunk) {
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("Datastore: batch write objects", chunk.size()).toString());
+		int[] writeCounts = new int[chunk.size()];
+		for (int i = 0; i < writeCounts.length; i++) {
+			writeCounts[i] = chunk.get(i).getWriteCount();
+		}
+
+		List<Persistent> placedObjects = moveMisplacedObjects(chunk);
+		if (!placedObjects.isEmpty()) {
+			getBackend().writeAll(placedObjects);
+		}
+		updateDependents(chunk);
+		for (int i = 0; i < writeCounts.length; i++) {
+			resetWriteCount(chunk.get(i), writeCounts[i]);
+		}
+	}
+
+	/**
+	 * Writes the entity group members among the objects whose parent is not the entity group of their sharding value
+	 * to that group and removes them under their old parent; returns the other objects. Such members are instances
+	 * that were cached on another instance or kept in a session while their entity was migrated. Computing the parent
+	 * at save time keeps them from creating their entity again under the old parent.
+	 */
+	protected List<Persistent> moveMisplacedObjects(List<? extends Persistent> objects) {
+		List<Persistent> result = new ArrayList<Persistent>(objects.size());
+		List<EntityGroupMember> misplacedObjects = new ArrayList<EntityGroupMember>();
+		for (Persistent object : objects) {
+			if (object instanceof EntityGroupMember && !isInEntityGroup((EntityGroupMember) object)) {
+				misplacedObjects.add((EntityGroupMember) object);
+			} else {
+				result.add(object);
+			}
+		}
+
+		if (!misplacedObjects.isEmpty()) {
+			log.info(LogBuilder.createSystemMessage().
+					addAction("move misplaced entities to entity groups").
+					addParameter("number of entities", misplacedObjects.size()).toString());
+			getBackend().moveToEntityGroups(misplacedObjects);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean isInEntityGroup(EntityGroupMember member) {
+		return getEntityGroupKey(member.getShardingValue()).equals(member.getEntityGroupKey());
+	}
+
+	/**
+	 * Marks the object as written, unless it changed while it was being written; then it stays dirty and is written
+	 * again by the write-behind queue, so that the change is not lost.
+	 */
+	protected void resetWriteCount(Persistent object, int writeCount) {
+		if (!object.resetWriteCount(writeCount)) {
+			log.config(LogBuilder.createSystemMessage().
+					addParameter("Datastore: object changed while being written", object).toString());
+			WriteBehindQueue.getInstance().requeue(this, object);
+		}
+	}
+
 	/**
 	 * Updates all dependencies of the object.
 	 */
@@ -167,6 +454,16 @@ public abstract class ObjectManager {
 		// overwrite if your object has additional dependencies
 	}
 
+	/**
+	 * Updates all dependencies of the given objects, which have just been written in one batch. Overwrite if the
+	 * dependencies of several objects can be written more efficiently together.
+	 */
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		for (Persistent object : objects) {
+			updateDependents(object);
+		}
+	}
+
 	/**
 	 * Deletes the given entity from the datastore.
 	 */
@@ -174,7 +471,20 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(object, "object");
 
 		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
-		OfyService.ofy().delete().entity(object).now();
+		getBackend().delete(object);
+	}
+
+	/**
+	 * Deletes all given entities from the datastore with one batch delete.
+	 */
+	protected void deleteObjects(Collection<?> objects) {
+		assertIsNonNullArgument(objects, "objects");
+
+		if (!objects.isEmpty()) {
+			log.config(LogBuilder.createSystemMessage().
+					addParameter("Datastore: batch delete entities", objects.size()).toString());
+			getBackend().deleteAll(objects);
+		}
 	}
 
 	/**
@@ -189,9 +499,22 @@ public abstract class ObjectManager {
 		log.info(LogBuilder.createSystemMessage().
 				addMessage("Datastore: delete entities of type " + type
 						+ " where property " + propertyName + " == " + value).toString());
-		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
-				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
-		OfyService.ofy().delete().keys(keys);
+		deleteObjects(type, propertyName, Collections.singletonList(value));
+	}
+
+	/**
+	 * Deletes all entities of the type that have a property with one of the specified values. The matching keys are
+	 * collected first and then deleted with one batch delete.
+	 */
+	protected <E> void deleteObjects(Class<E> type, String propertyName, Collection<?> values) {
+		assertIsNonNullArgument(type, "type");
+		assertIsNonNullArgument(propertyName, "propertyName");
+		assertIsNonNullArgument(values, "values");
+
+		int noDeletedObjects = getBackend().deleteAll(type, queryAncestorKeys, propertyName, values);
+		log.info(LogBuilder.createSystemMessage().
+				addMessage("Datastore: batch deleted " + noDeletedObjects + " entities of type " + type
+						+ " where property " + propertyName + " matches " + values.size() + " values").toString());
 	}
 
 	/**
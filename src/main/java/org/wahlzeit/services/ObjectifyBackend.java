@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The PersistenceBackend for the Google Datastore, using Objectify. Callers have to run within an Objectify context,
+ * e.g. via ObjectifyService.run().
+ */
+public class ObjectifyBackend extends PersistenceBackend {
+
+	/**
+	 * The datastore runs one sub-query per value of an "in" filter and allows at most 30 of them per query
+	 */
+	public static final int MAX_NO_IN_VALUES = 30;
+
+	@Override
+	public <E> E read(Class<E> type, Long id) {
+		return OfyService.ofy().load().type(type).id(id).now();
+	}
+
+	@Override
+	public <E> E read(Class<E> type, String id) {
+		return OfyService.ofy().load().type(type).id(id).now();
+	}
+
+	@Override
+	public <E> E readFirst(Class<E> type, Key ancestor, String propertyName, Object value) {
+		return OfyService.ofy().load().type(type).ancestor(ancestor).filter(propertyName, value).first().now();
+	}
+
+	@Override
+	public <E> List<E> readAll(Class<E> type, Key ancestor) {
+		return OfyService.ofy().load().type(type).ancestor(ancestor).list();
+	}
+
+	@Override
+	public <E> String readPage(Collection<E> result, Class<E> type, Key ancestor, String startCursor, int pageSize) {
+		Query<E> query = OfyService.ofy().load().type(type).ancestor(ancestor).limit(pageSize);
+		if (startCursor != null) {
+			query = query.startAt(Cursor.fromWebSafeString(startCursor));
+		}
+
+		int noLoadedObjects = 0;
+		QueryResultIterator<E> iterator = query.iterator();
+		while (iterator.hasNext()) {
+			result.add(iterator.next());
+			noLoadedObjects++;
+		}
+
+		if (noLoadedObjects < pageSize) {
+			return null;
+		}
+
+		Cursor nextCursor = iterator.getCursor();
+		return (nextCursor != null) ? nextCursor.toWebSafeString() : null;
+	}
+
+	@Override
+	public <E> List<E> query(Class<E> type, Key ancestor, String propertyName, Object value) {
+		return OfyService.ofy().load().type(type).ancestor(ancestor).filter(propertyName, value).list();
+	}
+
+	/**
+	 * The queries of all ancestors are started before the first result is waited for, so that they run in parallel.
+	 */
+	@Override
+	public <E> E readFirst(Class<E> type, List<Key> ancestors, String propertyName, Object value) {
+		List<LoadResult<E>> results = new ArrayList<LoadResult<E>>(ancestors.size());
+		for (Key ancestor : ancestors) {
+			results.add(OfyService.ofy().load().type(type).ancestor(ancestor).filter(propertyName, value).first());
+		}
+
+		for (LoadResult<E> result : results) {
+			E entity = result.now();
+			if (entity != null) {
+				return entity;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @see #readFirst(Class, List, String, Object)
+	 */
+	@Override
+	public <E> List<E> readAll(Class<E> type, List<Key> ancestors) {
+		List<List<E>> results = new ArrayList<List<E>>(ancestors.size());
+		for (Key ancestor : ancestors) {
+			results.add(OfyService.ofy().load().type(type).ancestor(ancestor).list());
+		}
+		return concat(results);
+	}
+
+	/**
+	 * @see #readFirst(Class, List, String, Object)
+	 */
+	@Override
+	public <E> List<E> query(Class<E> type, List<Key> ancestors, String propertyName, Object value) {
+		List<List<E>> results = new ArrayList<List<E>>(ancestors.size());
+		for (Key ancestor : ancestors) {
+			results.add(OfyService.ofy().load().type(type).ancestor(ancestor).filter(propertyName, value).list());
+		}
+		return concat(results);
+	}
+
+	/**
+	 * @methodtype helper
+	 *
+	 * Joins the lists of started queries; each list blocks until its query has finished.
+	 */
+	protected <E> List<E> concat(List<List<E>> lists) {
+		List<E> result = new ArrayList<E>();
+		for (List<E> list : lists) {
+			result.addAll(list);
+		}
+		return result;
+	}
+
+	@Override
+	public <R> R transact(Work<R> work) {
+		return OfyService.ofy().transact(work);
+	}
+
+	@Override
+	public void write(Object entity) {
+		OfyService.ofy().save().entity(entity).now();
+	}
+
+	@Override
+	public void writeAll(Collection<?> entities) {
+		OfyService.ofy().save().entities(entities).now();
+	}
+
+	@Override
+	public void delete(Object entity) {
+		OfyService.ofy().delete().entity(entity).now();
+	}
+
+	@Override
+	public void deleteAll(Collection<?> entities) {
+		OfyService.ofy().delete().entities(entities).now();
+	}
+
+	@Override
+	public <E> int deleteAll(Class<E> type, Key ancestor, String propertyName, Collection<?> values) {
+		return deleteAll(type, Collections.singletonList(ancestor), propertyName, values);
+	}
+
+	/**
+	 * The values are matched with "in" filters of at most MAX_NO_IN_VALUES values each; the key queries of all chunks
+	 * and ancestors are started before the first result is waited for.
+	 */
+	@Override
+	public <E> int deleteAll(Class<E> type, List<Key> ancestors, String propertyName, Collection<?> values) {
+		List<Object> valueList = new ArrayList<Object>(values);
+		List<List<com.googlecode.objectify.Key<E>>> results = new ArrayList<List<com.googlecode.objectify.Key<E>>>();
+		for (Key ancestor : ancestors) {
+			for (int i = 0; i < valueList.size(); i += MAX_NO_IN_VALUES) {
+				List<Object> chunk = valueList.subList(i, Math.min(i + MAX_NO_IN_VALUES, valueList.size()));
+				results.add(OfyService.ofy().load().type(type).
+						ancestor(ancestor).filter(propertyName + " in", chunk).keys().list());
+			}
+		}
+
+		List<com.googlecode.objectify.Key<E>> keys = concat(results);
+		if (!keys.isEmpty()) {
+			OfyService.ofy().delete().keys(keys).now();
+		}
+		return keys.size();
+	}
+
+	/**
+	 * Each entity is saved under its new parent and deleted under its old one in a cross-group transaction of its own,
+	 * so that it never exists twice or not at all. If the transaction fails, the entity keeps its old parent.
+	 */
+	@Override
+	public void moveToEntityGroups(Collection<? extends EntityGroupMember> entities) {
+		for (final EntityGroupMember entity : entities) {
+			Key oldEntityGroupKey = entity.getEntityGroupKey();
+			Key entityGroupKey = ObjectManager.getEntityGroupKey(entity.getShardingValue());
+			if (entityGroupKey.equals(oldEntityGroupKey)) {
+				continue;
+			}
+
+			final com.googlecode.objectify.Key<Object> oldKey = com.googlecode.objectify.Key.create((Object) entity);
+			entity.setEntityGroupKey(entityGroupKey);
+			try {
+				OfyService.ofy().transact(new VoidWork() {
+					@Override
+					public void vrun() {
+						OfyService.ofy().save().entity(entity).now();
+						OfyService.ofy().delete().key(oldKey).now();
+					}
+				});
+			} catch (RuntimeException ex) {
+				entity.setEntityGroupKey(oldEntityGroupKey);
+				throw ex;
+			}
+		}
+	}
+
+}
@@ -13,6 +13,7 @@ import org.wahlzeit.model.InstrumentPhoto;
 import org.wahlzeit.model.PhotoCase;
 import org.wahlzeit.model.Tag;
 import org.wahlzeit.model.User;
+import org.wahlzeit.model.persistence.DatastoreAdapter.ImageChunk;
 import org.wahlzeit.model.persistence.DatastoreAdapter.ImageWrapper;
 
 /**
@@ -36,6 +37,7 @@ public class OfyService {
 		factory().register(Guest.class);
 		factory().register(PhotoCase.class);
 		factory().register(ImageWrapper.class);
+		factory().register(ImageChunk.class);
 		factory().register(InstrumentPhoto.class);
 	}
 
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A PersistenceBackend reads, queries, writes and deletes entities on behalf of the ObjectManagers. The default
+ * backend is the Google Datastore via Objectify; an in-memory backend can be set instead, e.g. to run load tests of
+ * the model without the App Engine stubs. Queries are restricted to the entities below the given ancestor key.
+ */
+public abstract class PersistenceBackend {
+
+	private static final Logger log = Logger.getLogger(PersistenceBackend.class.getName());
+
+	/**
+	 *
+	 */
+	protected static PersistenceBackend instance = new ObjectifyBackend();
+
+	/**
+	 * @methodtype get
+	 */
+	public static PersistenceBackend getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(PersistenceBackend newInstance) {
+		log.config(LogBuilder.createSystemMessage().
+				addAction("set PersistenceBackend instance").
+				addParameter("instance", newInstance).toString());
+		instance = newInstance;
+	}
+
+	/**
+	 * Reads the entity of the type with the given id, or null if there is none.
+	 *
+	 * @methodtype get
+	 */
+	public abstract <E> E read(Class<E> type, Long id);
+
+	/**
+	 * @methodtype get
+	 */
+	public abstract <E> E read(Class<E> type, String id);
+
+	/**
+	 * Reads the first entity of the type below the ancestor whose property has the given value, or null.
+	 *
+	 * @methodtype get
+	 */
+	public abstract <E> E readFirst(Class<E> type, Key ancestor, String propertyName, Object value);
+
+	/**
+	 * Reads all entities of the type below the ancestor.
+	 *
+	 * @methodtype get
+	 */
+	public abstract <E> List<E> readAll(Class<E> type, Key ancestor);
+
+	/**
+	 * Adds one page of at most pageSize entities of the type below the ancestor to the result, starting at the given
+	 * cursor (null for the first page). Returns the cursor of the next page, or null if all entities have been read.
+	 *
+	 * @methodtype get
+	 */
+	public abstract <E> String readPage(Collection<E> result, Class<E> type, Key ancestor, String startCursor,
+			int pageSize);
+
+	/**
+	 * Reads all entities of the type below the ancestor whose property has the given value.
+	 *
+	 * @methodtype get
+	 */
+	public abstract <E> List<E> query(Class<E> type, Key ancestor, String propertyName, Object value);
+
+	/**
+	 * Reads the first entity of the type below one of the ancestors whose property has the given value, or null.
+	 * Ancestors are searched in the given order; backends may issue the queries of all ancestors at once.
+	 *
+	 * @methodtype get
+	 */
+	public <E> E readFirst(Class<E> type, List<Key> ancestors, String propertyName, Object value) {
+		for (Key ancestor : ancestors) {
+			E result = readFirst(type, ancestor, propertyName, value);
+			if (result != null) {
+				return result;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads all entities of the type below the ancestors; backends may issue the queries of all ancestors at once.
+	 *
+	 * @methodtype get
+	 */
+	public <E> List<E> readAll(Class<E> type, List<Key> ancestors) {
+		List<E> result = new ArrayList<E>();
+		for (Key ancestor : ancestors) {
+			result.addAll(readAll(type, ancestor));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads all entities of the type below the ancestors whose property has the given value; backends may issue the
+	 * queries of all ancestors at once.
+	 *
+	 * @methodtype get
+	 */
+	public <E> List<E> query(Class<E> type, List<Key> ancestors, String propertyName, Object value) {
+		List<E> result = new ArrayList<E>();
+		for (Key ancestor : ancestors) {
+			result.addAll(query(type, ancestor, propertyName, value));
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the work in a transaction; reads and writes of the work go through this backend.
+	 *
+	 * @methodtype command
+	 */
+	public abstract <R> R transact(Work<R> work);
+
+	/**
+	 * @methodtype command
+	 */
+	public abstract void write(Object entity);
+
+	/**
+	 * Writes all entities with one batch.
+	 *
+	 * @methodtype command
+	 */
+	public abstract void writeAll(Collection<?> entities);
+
+	/**
+	 * @methodtype command
+	 */
+	public abstract void delete(Object entity);
+
+	/**
+	 * Deletes all entities with one batch.
+	 *
+	 * @methodtype command
+	 */
+	public abstract void deleteAll(Collection<?> entities);
+
+	/**
+	 * Deletes all entities of the type below the ancestor whose property has one of the given values with one batch.
+	 * Returns the number of deleted entities.
+	 *
+	 * @methodtype command
+	 */
+	public abstract <E> int deleteAll(Class<E> type, Key ancestor, String propertyName, Collection<?> values);
+
+	/**
+	 * Deletes all entities of the type below the ancestors whose property has one of the given values. Returns the
+	 * number of deleted entities.
+	 *
+	 * @methodtype command
+	 */
+	public <E> int deleteAll(Class<E> type, List<Key> ancestors, String propertyName, Collection<?> values) {
+		int result = 0;
+		for (Key ancestor : ancestors) {
+			result += deleteAll(type, ancestor, propertyName, values);
+		}
+		return result;
+	}
+
+	/**
+	 * Moves the entities to the entity groups of their sharding values. Each entity is written below its new parent
+	 * before it is deleted below its old one, so that an interrupted move can simply be repeated.
+	 *
+	 * @methodtype command
+	 */
+	public abstract void moveToEntityGroups(Collection<? extends EntityGroupMember> entities);
+
+}
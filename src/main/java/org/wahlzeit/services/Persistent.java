@@ -41,4 +41,15 @@ public interface Persistent {
 	 */
 	void resetWriteCount();
 
+	/**
+	 *
+	 */
+	int getWriteCount();
+
+	/**
+	 * Resets the write count only if it still has the expected value, i.e. if the object has not changed since the
+	 * count was taken; returns whether it was reset.
+	 */
+	boolean resetWriteCount(int expectedWriteCount);
+
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.ThreadManager;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A write-behind queue for dirty Persistent objects. Instead of writing an object to the datastore on the request
+ * thread, its ObjectManager enqueues it here. Repeated writes of the same object are coalesced into one pending
+ * entry, because its write count simply keeps growing until the object is written. The queue is flushed in batches
+ * via ObjectManager.updateObjects when it holds too many objects, when its oldest entry is too old, and when the
+ * instance shuts down.
+ *
+ * The queue only holds the objects of its own instance, so it is flushed by a background thread of the instance
+ * rather than by a request, and drained by a shutdown hook. Instances that may not run background threads, e.g.
+ * automatically scaled ones, fall back to flushing on the request thread once a trigger has been reached.
+ */
+public class WriteBehindQueue {
+
+	private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getName());
+
+	/**
+	 * Number of pending objects that triggers a flush
+	 */
+	public static final int DEFAULT_MAX_PENDING_OBJECTS = 100;
+
+	/**
+	 * Age of the oldest pending object (in milliseconds) that triggers a flush
+	 */
+	public static final long DEFAULT_MAX_DELAY = 10 * 1000;
+
+	/**
+	 * Interval (in milliseconds) in which the background thread checks whether a flush is due
+	 */
+	public static final long FLUSH_CHECK_INTERVAL = 1000;
+
+	/**
+	 *
+	 */
+	protected static final WriteBehindQueue instance = new WriteBehindQueue();
+
+	/**
+	 * Pending objects, grouped by the ObjectManager that writes them. Sets are identity based to coalesce repeated
+	 * writes of the same object.
+	 */
+	protected Map<ObjectManager, Set<Persistent>> pendingObjects = new LinkedHashMap<ObjectManager, Set<Persistent>>();
+
+	/**
+	 *
+	 */
+	protected int noPendingObjects = 0;
+	protected long oldestEnqueueTime = 0;
+
+	/**
+	 *
+	 */
+	protected int maxPendingObjects = DEFAULT_MAX_PENDING_OBJECTS;
+	protected long maxDelay = DEFAULT_MAX_DELAY;
+
+	/**
+	 * Serializes flushes, so that the same object is never written by two threads at once
+	 */
+	protected final Object flushLock = new Object();
+
+	/**
+	 * Background thread that flushes the queue; null if it has not been started or is not available
+	 */
+	protected Thread flusher = null;
+
+	/**
+	 * @methodtype get
+	 */
+	public static WriteBehindQueue getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void setMaxPendingObjects(int newMaxPendingObjects) {
+		maxPendingObjects = newMaxPendingObjects;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void setMaxDelay(long newMaxDelay) {
+		maxDelay = newMaxDelay;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int getNoPendingObjects() {
+		return noPendingObjects;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Schedules the object to be written by the manager. Objects that are not dirty are ignored. If the size or time
+	 * trigger has been reached, wakes up the background thread, or flushes the queue on the calling thread if there is
+	 * none.
+	 */
+	public void enqueue(ObjectManager manager, Persistent object) {
+		if (manager == null || object == null || !object.isDirty()) {
+			return;
+		}
+
+		if (addPendingObject(manager, object) && !wakeUpFlusher()) {
+			flush();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Schedules the object to be written again without flushing, e.g. because it changed while it was being written.
+	 */
+	public void requeue(ObjectManager manager, Persistent object) {
+		if (object.isDirty()) {
+			addPendingObject(manager, object);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Flushes the queue if the time trigger has been reached and there is no background thread to do so.
+	 */
+	public void endRequest() {
+		if (!isFlusherRunning()) {
+			flushIfDue();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Starts the background thread that flushes the queue and registers a shutdown hook that drains it. Returns
+	 * whether the thread could be started.
+	 */
+	public synchronized boolean start() {
+		if (flusher != null) {
+			return true;
+		}
+
+		LifecycleManager.getInstance().setShutdownHook(new LifecycleManager.ShutdownHook() {
+			@Override
+			public void shutdown() {
+				stop();
+				drain();
+			}
+		});
+
+		try {
+			flusher = ThreadManager.createBackgroundThread(new Runnable() {
+				@Override
+				public void run() {
+					runFlusher();
+				}
+			});
+			flusher.start();
+			return true;
+		} catch (RuntimeException ex) {
+			flusher = null;
+			log.config(LogBuilder.createSystemMessage().
+					addException("No background thread available, flushing at the end of requests", ex).toString());
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Stops the background thread; pending objects stay in the queue until they are drained.
+	 */
+	public void stop() {
+		Thread stoppedFlusher;
+		synchronized (this) {
+			stoppedFlusher = flusher;
+			flusher = null;
+			notifyAll();
+		}
+
+		if (stoppedFlusher != null && stoppedFlusher != Thread.currentThread()) {
+			try {
+				stoppedFlusher.join(FLUSH_CHECK_INTERVAL);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isFlusherRunning() {
+		return flusher != null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Wakes up the background thread and returns whether there is one.
+	 */
+	protected synchronized boolean wakeUpFlusher() {
+		notifyAll();
+		return flusher != null;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loop of the background thread: waits for the next check or a wake-up and flushes the queue if a trigger has
+	 * been reached, until the thread is stopped. Waiting first also paces retries after failed writes.
+	 */
+	protected void runFlusher() {
+		Thread currentThread = Thread.currentThread();
+		while (true) {
+			synchronized (this) {
+				if (flusher != currentThread) {
+					return;
+				}
+				try {
+					wait(FLUSH_CHECK_INTERVAL);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+
+			try {
+				ObjectifyService.run(new Work<Void>() {
+					@Override
+					public Void run() {
+						flushIfDue();
+						return null;
+					}
+				});
+			} catch (RuntimeException ex) {
+				log.warning(LogBuilder.createSystemMessage().
+						addException("Problem when flushing write-behind queue in background", ex).toString());
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the object to the pending objects of the manager and returns whether a flush is due.
+	 */
+	protected synchronized boolean addPendingObject(ObjectManager manager, Persistent object) {
+		Set<Persistent> objects = pendingObjects.get(manager);
+		if (objects == null) {
+			objects = Collections.newSetFromMap(new IdentityHashMap<Persistent, Boolean>());
+			pendingObjects.put(manager, objects);
+		}
+
+		long now = System.currentTimeMillis();
+		if (objects.add(object)) {
+			if (noPendingObjects == 0) {
+				oldestEnqueueTime = now;
+			}
+			noPendingObjects++;
+		}
+
+		return isFlushDue(now);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected synchronized boolean isFlushDue(long now) {
+		return (noPendingObjects >= maxPendingObjects) ||
+				((noPendingObjects > 0) && (now - oldestEnqueueTime >= maxDelay));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Flushes the queue if the time trigger has been reached.
+	 */
+	public void flushIfDue() {
+		if (isFlushDue(System.currentTimeMillis())) {
+			flush();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes all pending objects in batches. Objects that could not be written are enqueued again.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			Map<ObjectManager, Set<Persistent>> objectsToWrite;
+			int noObjectsToWrite;
+			synchronized (this) {
+				objectsToWrite = pendingObjects;
+				noObjectsToWrite = noPendingObjects;
+				pendingObjects = new LinkedHashMap<ObjectManager, Set<Persistent>>();
+				noPendingObjects = 0;
+				oldestEnqueueTime = 0;
+			}
+
+			if (noObjectsToWrite == 0) {
+				return;
+			}
+
+			log.config(LogBuilder.createSystemMessage().
+					addAction("flush write-behind queue").
+					addParameter("number of objects", noObjectsToWrite).toString());
+
+			for (Map.Entry<ObjectManager, Set<Persistent>> entry : objectsToWrite.entrySet()) {
+				ObjectManager manager = entry.getKey();
+				try {
+					manager.updateObjects(entry.getValue());
+				} catch (RuntimeException ex) {
+					log.warning(LogBuilder.createSystemMessage().
+							addException("Problem when flushing write-behind queue, objects are retried later", ex)
+							.toString());
+					for (Persistent object : entry.getValue()) {
+						if (object.isDirty()) {
+							addPendingObject(manager, object);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Writes all pending objects, independent of any request; used when the system shuts down.
+	 */
+	public void drain() {
+		ObjectifyService.run(new Work<Void>() {
+			@Override
+			public Void run() {
+				flush();
+				return null;
+			}
+		});
+
+		log.info(LogBuilder.createSystemMessage().addMessage("write-behind queue drained").toString());
+	}
+
+}
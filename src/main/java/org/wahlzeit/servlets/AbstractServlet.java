@@ -25,6 +25,7 @@ import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.Session;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.WriteBehindQueue;
 import org.wahlzeit.utils.StringUtil;
 import org.wahlzeit.webparts.WebPart;
 
@@ -83,10 +84,14 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myGet(request, response);
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myGet(request, response);
+			}
+		} finally {
+			WriteBehindQueue.getInstance().endRequest();
 		}
 
 		SessionManager.dropThreadLocalSession();
@@ -102,10 +107,14 @@ public abstract class AbstractServlet extends HttpServlet {
 		UserSession us = ensureUserSession(request);
 		SessionManager.setThreadLocalSession(us);
 
-		if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
-			displayNullPage(request, response);
-		} else {
-			myPost(request, response);
+		try {
+			if (ServiceMain.getInstance().isShuttingDown() || (us == null)) {
+				displayNullPage(request, response);
+			} else {
+				myPost(request, response);
+			}
+		} finally {
+			WriteBehindQueue.getInstance().endRequest();
 		}
 
 		SessionManager.dropThreadLocalSession();
@@ -5,13 +5,13 @@ import org.apache.http.HttpStatus;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.persistence.ImageCache;
 import org.wahlzeit.model.persistence.ImageStorage;
 import org.wahlzeit.services.LogBuilder;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.logging.Logger;
 
 /**
@@ -45,6 +45,8 @@ public class StaticDataServlet extends AbstractServlet {
 					response.getOutputStream().write(image.getImageData());
 					response.getOutputStream().flush();
 					response.setStatus(HttpStatus.SC_OK);
+				} else if (streamImage(photoId, size, response)) {
+					log.config(LogBuilder.createSystemMessage().addMessage("image streamed").toString());
 				} else {
 					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
 					response.setStatus(HttpStatus.SC_NOT_FOUND);
@@ -57,14 +59,18 @@ public class StaticDataServlet extends AbstractServlet {
 
 		} catch (Exception e) {
 			log.severe(LogBuilder.createSystemMessage().addException("Problem when loading image", e).toString());
+			if (!response.isCommitted()) {
+				response.setStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+			}
 		}
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Loads image either from the <@link>PhotoManager</@link>, if it has not been persisted yet, or via the
+	 * <@link>ImageCache</@link>, which reads it from the <@link>ImageStorage</@link> on first request. Storages that
+	 * stream images are not cached, so null is returned for them as well as if the image does not exist.
 	 */
 	private Image getImage(String photoId, int size) {
 		Image image = null;
@@ -73,19 +79,27 @@ public class StaticDataServlet extends AbstractServlet {
 			PhotoSize photoSize = PhotoSize.getFromInt(size);
 			image = photo.getImage(photoSize);
 		}
-		// if not in cache load from Google Cloud Storage
-		if (image == null) {
-			Serializable rawImage = null;
-			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
-			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
-			}
+		if (image == null && !ImageStorage.getInstance().isStreaming()) {
+			image = ImageCache.getInstance().getImage(photoId, size);
 		}
 		return image;
 	}
-}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Streams the image directly from a streaming <@link>ImageStorage</@link> into the response. Returns false if the
+	 * storage does not stream or the image does not exist; the storage tells the latter itself, so that the image is
+	 * looked up only once. The status is only set once the image has been read, so that a failing read can still
+	 * report an error.
+	 */
+	private boolean streamImage(String photoId, int size, HttpServletResponse response) throws IOException {
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		if (!imageStorage.isStreaming() || !imageStorage.streamImage(photoId, size, response.getOutputStream())) {
+			return false;
+		}
+
+		response.setStatus(HttpStatus.SC_OK);
+		return true;
+	}
+}
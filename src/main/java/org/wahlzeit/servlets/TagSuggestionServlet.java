@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.servlets;
+
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.Tags;
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A servlet class that suggests tags while they are typed, e.g. in the filter and upload forms. For a request like
+ * "/suggestTags?prefix=fl&limit=5" it returns the most popular tags that start with the prefix as a JSON array. It
+ * needs no user session, as it only reads the TagDictionary of the PhotoManager.
+ */
+public class TagSuggestionServlet extends HttpServlet {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 42L; // any one does; class never serialized
+
+	private static final Logger log = Logger.getLogger(TagSuggestionServlet.class.getName());
+
+	/**
+	 *
+	 */
+	public static final String PREFIX = "prefix";
+	public static final String LIMIT = "limit";
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_LIMIT = 10;
+	public static final int MAX_LIMIT = 50;
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		String prefix = request.getParameter(PREFIX);
+		prefix = (prefix != null) ? Tags.asTag(prefix) : "";
+		int limit = getLimit(request.getParameter(LIMIT));
+
+		List<String> tags = PhotoManager.getInstance().getTagIndex().getTagDictionary().getCompletions(prefix, limit);
+		log.config(LogBuilder.createSystemMessage().
+				addParameter("prefix", prefix).
+				addParameter("number of suggestions", tags.size()).toString());
+
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType("application/json");
+		response.setHeader("Cache-Control", "no-cache");
+
+		PrintWriter out = response.getWriter();
+		out.print(asJsonArray(tags));
+		out.close();
+
+		response.setStatus(HttpServletResponse.SC_OK);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected int getLimit(String limit) {
+		if (limit == null) {
+			return DEFAULT_LIMIT;
+		}
+
+		try {
+			return Math.max(0, Math.min(Integer.parseInt(limit), MAX_LIMIT));
+		} catch (NumberFormatException ex) {
+			return DEFAULT_LIMIT;
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 *
+	 * Tags only consist of letters and digits, so they need no escaping.
+	 */
+	protected String asJsonArray(List<String> tags) {
+		StringBuilder result = new StringBuilder(tags.size() * 12 + 2);
+		result.append('[');
+		for (int i = 0; i < tags.size(); i++) {
+			if (i > 0) {
+				result.append(',');
+			}
+			result.append('"').append(tags.get(i)).append('"');
+		}
+		return result.append(']').toString();
+	}
+
+}
@@ -0,0 +1,878 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An IntBitmap is a compressed set of non-negative ints, e.g. of photo ids. The ints are grouped by their upper 16
+ * bits; each group is held either as a sorted array of its lower 16 bits while it is sparse, or as a plain bitmap of
+ * 2^16 bits once it is dense. Dense id ranges thus take one bit per id, sparse ones two bytes per id.
+ *
+ * An IntBitmap is not thread-safe; share it only as an unmodified copy. It serializes only its values, e.g. when it is
+ * part of the HTTP session.
+ */
+public class IntBitmap implements Serializable {
+
+	/**
+	 * Fixed to the value computed for the first serialized form, which is stored with clients in the datastore
+	 */
+	private static final long serialVersionUID = -1579152151201251561L;
+
+	/**
+	 * Largest number of values held in an array group; above it, a bitmap group takes less memory
+	 */
+	public static final int MAX_ARRAY_SIZE = 4096;
+
+	/**
+	 *
+	 */
+	protected static final int GROUP_SIZE = 1 << 16;
+	protected static final int NO_WORDS = GROUP_SIZE / 64;
+
+	/**
+	 * Upper 16 bits of the groups, in ascending order
+	 */
+	protected transient char[] keys;
+
+	/**
+	 *
+	 */
+	protected transient Group[] groups;
+	protected transient int noGroups = 0;
+	protected transient int cardinality = 0;
+
+	/**
+	 *
+	 */
+	public IntBitmap() {
+		keys = new char[4];
+		groups = new Group[4];
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected IntBitmap(int groupCapacity) {
+		keys = new char[Math.max(groupCapacity, 1)];
+		groups = new Group[Math.max(groupCapacity, 1)];
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static IntBitmap valueOf(int... values) {
+		IntBitmap result = new IntBitmap();
+		for (int value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the values whose bits are set in the words, where bit (value % 64) of words[value / 64] stands for the
+	 * value. Copies the words group by group instead of adding each value.
+	 */
+	public static IntBitmap valueOfWords(long[] words) {
+		int noKeys = (words.length + NO_WORDS - 1) / NO_WORDS;
+		IntBitmap result = new IntBitmap(noKeys);
+		for (int key = 0; key < noKeys; key++) {
+			int fromIndex = key * NO_WORDS;
+			int toIndex = Math.min(fromIndex + NO_WORDS, words.length);
+			int groupCardinality = 0;
+			for (int i = fromIndex; i < toIndex; i++) {
+				groupCardinality += Long.bitCount(words[i]);
+			}
+
+			if (groupCardinality > 0) {
+				long[] groupWords = new long[NO_WORDS];
+				System.arraycopy(words, fromIndex, groupWords, 0, toIndex - fromIndex);
+				result.appendGroup((char) key, BitmapGroup.normalize(groupWords, groupCardinality));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+
+		int index = indexOf(high(value));
+		return (index >= 0) && groups[index].contains(low(value));
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the value and returns whether it was not contained before.
+	 */
+	public boolean add(int value) {
+		assertIsValidValue(value);
+
+		char key = high(value);
+		int index = indexOf(key);
+		if (index < 0) {
+			index = -index - 1;
+			insertGroup(index, key, new ArrayGroup(new char[4], 0));
+		}
+
+		Group group = groups[index];
+		int groupCardinality = group.cardinality;
+		groups[index] = group.add(low(value));
+		if (groups[index].cardinality > groupCardinality) {
+			cardinality++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Removes the value and returns whether it was contained before.
+	 */
+	public boolean remove(int value) {
+		if (value < 0) {
+			return false;
+		}
+
+		int index = indexOf(high(value));
+		if (index < 0) {
+			return false;
+		}
+
+		Group group = groups[index];
+		int groupCardinality = group.cardinality;
+		group = group.remove(low(value));
+		if (group.cardinality == groupCardinality) {
+			return false;
+		}
+
+		cardinality--;
+		if (group.cardinality == 0) {
+			removeGroup(index);
+		} else {
+			groups[index] = group;
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		Arrays.fill(groups, 0, noGroups, null);
+		noGroups = 0;
+		cardinality = 0;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the smallest value that is not less than fromValue, or -1 if there is none. Iterate with
+	 * for (int i = bitmap.nextValue(0); i >= 0; i = bitmap.nextValue(i + 1)).
+	 */
+	public int nextValue(int fromValue) {
+		if (fromValue < 0) {
+			fromValue = 0;
+		}
+
+		char key = high(fromValue);
+		int index = indexOf(key);
+		if (index >= 0) {
+			int result = groups[index].nextValue(low(fromValue));
+			if (result >= 0) {
+				return (key << 16) | result;
+			}
+			index++;
+		} else {
+			index = -index - 1;
+		}
+
+		if (index < noGroups) {
+			return (keys[index] << 16) | groups[index].nextValue(0);
+		}
+		return -1;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the value with the given rank, i.e. the n-th smallest value counting from 0, or -1 if there is none.
+	 */
+	public int select(int rank) {
+		if (rank < 0 || rank >= cardinality) {
+			return -1;
+		}
+
+		for (int i = 0; i < noGroups; i++) {
+			if (rank < groups[i].cardinality) {
+				return (keys[i] << 16) | groups[i].select(rank);
+			}
+			rank -= groups[i].cardinality;
+		}
+		return -1;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public int[] toArray() {
+		int[] result = new int[cardinality];
+		int noValues = 0;
+		for (int value = nextValue(0); value >= 0; value = nextValue(value + 1)) {
+			result[noValues++] = value;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public IntBitmap copy() {
+		IntBitmap result = new IntBitmap(noGroups);
+		for (int i = 0; i < noGroups; i++) {
+			result.appendGroup(keys[i], groups[i].copy());
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the values contained in both bitmaps.
+	 */
+	public static IntBitmap and(IntBitmap a, IntBitmap b) {
+		IntBitmap result = new IntBitmap(Math.min(a.noGroups, b.noGroups));
+		int i = 0;
+		int j = 0;
+		while (i < a.noGroups && j < b.noGroups) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				Group group = a.groups[i].and(b.groups[j]);
+				if (group.cardinality > 0) {
+					result.appendGroup(a.keys[i], group);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the values contained in at least one of the bitmaps.
+	 */
+	public static IntBitmap or(IntBitmap a, IntBitmap b) {
+		IntBitmap result = new IntBitmap(a.noGroups + b.noGroups);
+		int i = 0;
+		int j = 0;
+		while (i < a.noGroups || j < b.noGroups) {
+			if (j >= b.noGroups || (i < a.noGroups && a.keys[i] < b.keys[j])) {
+				result.appendGroup(a.keys[i], a.groups[i].copy());
+				i++;
+			} else if (i >= a.noGroups || a.keys[i] > b.keys[j]) {
+				result.appendGroup(b.keys[j], b.groups[j].copy());
+				j++;
+			} else {
+				result.appendGroup(a.keys[i], a.groups[i].or(b.groups[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns the values of a that are not contained in b.
+	 */
+	public static IntBitmap andNot(IntBitmap a, IntBitmap b) {
+		IntBitmap result = new IntBitmap(a.noGroups);
+		int j = 0;
+		for (int i = 0; i < a.noGroups; i++) {
+			while (j < b.noGroups && b.keys[j] < a.keys[i]) {
+				j++;
+			}
+
+			Group group;
+			if (j < b.noGroups && b.keys[j] == a.keys[i]) {
+				group = a.groups[i].andNot(b.groups[j]);
+			} else {
+				group = a.groups[i].copy();
+			}
+			if (group.cardinality > 0) {
+				result.appendGroup(a.keys[i], group);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the approximate number of bytes the bitmap takes, e.g. for statistics.
+	 */
+	public long getNoBytes() {
+		long result = 16 + keys.length * 2 + groups.length * 4;
+		for (int i = 0; i < noGroups; i++) {
+			result += groups[i].getNoBytes();
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof IntBitmap)) {
+			return false;
+		}
+
+		IntBitmap bitmap = (IntBitmap) other;
+		if (bitmap.cardinality != cardinality || bitmap.noGroups != noGroups) {
+			return false;
+		}
+		for (int value = nextValue(0); value >= 0; value = nextValue(value + 1)) {
+			if (!bitmap.contains(value)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int hashCode() {
+		int result = cardinality;
+		for (int value = nextValue(0); value >= 0; value = nextValue(value + 1)) {
+			result = 31 * result + value;
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public String toString() {
+		return "IntBitmap" + Arrays.toString(toArray());
+	}
+
+	/**
+	 * Writes the number of groups and then each group as its key, kind, cardinality, and values
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(noGroups);
+		for (int i = 0; i < noGroups; i++) {
+			out.writeChar(keys[i]);
+			groups[i].write(out);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int noGroupsToRead = in.readInt();
+		keys = new char[Math.max(noGroupsToRead, 1)];
+		groups = new Group[Math.max(noGroupsToRead, 1)];
+		for (int i = 0; i < noGroupsToRead; i++) {
+			char key = in.readChar();
+			appendGroup(key, in.readBoolean() ? BitmapGroup.read(in) : ArrayGroup.read(in));
+		}
+	}
+
+	/**
+	 * @methodtype assertion
+	 */
+	protected static void assertIsValidValue(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("negative value: " + value);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static char high(int value) {
+		return (char) (value >>> 16);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected static char low(int value) {
+		return (char) value;
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the index of the group with the key, or (-(insertion point) - 1) if there is none.
+	 */
+	protected int indexOf(char key) {
+		// the last group is the most likely one when values are added in ascending order
+		if (noGroups > 0 && keys[noGroups - 1] == key) {
+			return noGroups - 1;
+		}
+		return Arrays.binarySearch(keys, 0, noGroups, key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void insertGroup(int index, char key, Group group) {
+		if (noGroups == keys.length) {
+			keys = Arrays.copyOf(keys, noGroups * 2);
+			groups = Arrays.copyOf(groups, noGroups * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, noGroups - index);
+		System.arraycopy(groups, index, groups, index + 1, noGroups - index);
+		keys[index] = key;
+		groups[index] = group;
+		noGroups++;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void appendGroup(char key, Group group) {
+		insertGroup(noGroups, key, group);
+		cardinality += group.cardinality;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void removeGroup(int index) {
+		System.arraycopy(keys, index + 1, keys, index, noGroups - index - 1);
+		System.arraycopy(groups, index + 1, groups, index, noGroups - index - 1);
+		noGroups--;
+		groups[noGroups] = null;
+	}
+
+	/**
+	 * The lower 16 bits of the values that share their upper 16 bits. Modifications return the group that replaces
+	 * this one, which may be of the other kind.
+	 */
+	protected abstract static class Group {
+
+		protected int cardinality;
+
+		protected abstract boolean contains(char value);
+
+		protected abstract Group add(char value);
+
+		protected abstract Group remove(char value);
+
+		/**
+		 * Returns the smallest value not less than fromValue, or -1
+		 */
+		protected abstract int nextValue(int fromValue);
+
+		protected abstract int select(int rank);
+
+		protected abstract Group copy();
+
+		protected abstract Group and(Group other);
+
+		protected abstract Group or(Group other);
+
+		protected abstract Group andNot(Group other);
+
+		protected abstract long getNoBytes();
+
+		/**
+		 * Writes whether it is a bitmap group, its cardinality, and its values
+		 */
+		protected abstract void write(ObjectOutputStream out) throws IOException;
+
+		/**
+		 * Returns a bitmap group with the same values
+		 */
+		protected abstract BitmapGroup toBitmapGroup();
+
+	}
+
+	/**
+	 * A sparse group, held as sorted array
+	 */
+	protected static class ArrayGroup extends Group {
+
+		protected char[] values;
+
+		protected ArrayGroup(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		@Override
+		protected Group add(char value) {
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				return this;
+			}
+
+			if (cardinality == MAX_ARRAY_SIZE) {
+				return toBitmapGroup().add(value);
+			}
+
+			index = -index - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(cardinality * 2, MAX_ARRAY_SIZE));
+			}
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return this;
+		}
+
+		@Override
+		protected Group remove(char value) {
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if (index >= 0) {
+				System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+				cardinality--;
+			}
+			return this;
+		}
+
+		@Override
+		protected int nextValue(int fromValue) {
+			int index = Arrays.binarySearch(values, 0, cardinality, (char) fromValue);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			return (index < cardinality) ? values[index] : -1;
+		}
+
+		@Override
+		protected int select(int rank) {
+			return values[rank];
+		}
+
+		@Override
+		protected Group copy() {
+			return new ArrayGroup(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+		}
+
+		@Override
+		protected Group and(Group other) {
+			char[] result = new char[cardinality];
+			int noValues = 0;
+			for (int i = 0; i < cardinality; i++) {
+				if (other.contains(values[i])) {
+					result[noValues++] = values[i];
+				}
+			}
+			return new ArrayGroup(result, noValues);
+		}
+
+		@Override
+		protected Group or(Group other) {
+			if (other instanceof BitmapGroup) {
+				return other.or(this);
+			}
+
+			ArrayGroup otherArray = (ArrayGroup) other;
+			char[] result = new char[cardinality + otherArray.cardinality];
+			int noValues = 0;
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < otherArray.cardinality) {
+				if (j >= otherArray.cardinality || (i < cardinality && values[i] < otherArray.values[j])) {
+					result[noValues++] = values[i++];
+				} else if (i >= cardinality || values[i] > otherArray.values[j]) {
+					result[noValues++] = otherArray.values[j++];
+				} else {
+					result[noValues++] = values[i++];
+					j++;
+				}
+			}
+
+			Group group = new ArrayGroup(result, noValues);
+			return (noValues > MAX_ARRAY_SIZE) ? group.toBitmapGroup() : group;
+		}
+
+		@Override
+		protected Group andNot(Group other) {
+			char[] result = new char[cardinality];
+			int noValues = 0;
+			for (int i = 0; i < cardinality; i++) {
+				if (!other.contains(values[i])) {
+					result[noValues++] = values[i];
+				}
+			}
+			return new ArrayGroup(result, noValues);
+		}
+
+		@Override
+		protected long getNoBytes() {
+			return 24 + values.length * 2;
+		}
+
+		@Override
+		protected void write(ObjectOutputStream out) throws IOException {
+			out.writeBoolean(false);
+			out.writeInt(cardinality);
+			for (int i = 0; i < cardinality; i++) {
+				out.writeChar(values[i]);
+			}
+		}
+
+		/**
+		 * @methodtype factory
+		 */
+		protected static ArrayGroup read(ObjectInputStream in) throws IOException {
+			int cardinality = in.readInt();
+			char[] values = new char[Math.max(cardinality, 1)];
+			for (int i = 0; i < cardinality; i++) {
+				values[i] = in.readChar();
+			}
+			return new ArrayGroup(values, cardinality);
+		}
+
+		@Override
+		protected BitmapGroup toBitmapGroup() {
+			BitmapGroup result = new BitmapGroup(new long[NO_WORDS], 0);
+			for (int i = 0; i < cardinality; i++) {
+				result.add(values[i]);
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * A dense group, held as bitmap
+	 */
+	protected static class BitmapGroup extends Group {
+
+		protected long[] words;
+
+		protected BitmapGroup(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		protected boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		protected Group add(char value) {
+			long word = words[value >>> 6];
+			long newWord = word | (1L << value);
+			if (newWord != word) {
+				words[value >>> 6] = newWord;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		protected Group remove(char value) {
+			long word = words[value >>> 6];
+			long newWord = word & ~(1L << value);
+			if (newWord != word) {
+				words[value >>> 6] = newWord;
+				cardinality--;
+			}
+			// convert late, so that adding and removing around the limit does not convert each time
+			return (cardinality <= MAX_ARRAY_SIZE / 2) ? toArrayGroup() : this;
+		}
+
+		@Override
+		protected int nextValue(int fromValue) {
+			int index = fromValue >>> 6;
+			if (index >= NO_WORDS) {
+				return -1;
+			}
+
+			long word = words[index] & (-1L << fromValue);
+			while (true) {
+				if (word != 0) {
+					return (index << 6) + Long.numberOfTrailingZeros(word);
+				}
+				if (++index == NO_WORDS) {
+					return -1;
+				}
+				word = words[index];
+			}
+		}
+
+		@Override
+		protected int select(int rank) {
+			for (int i = 0; i < NO_WORDS; i++) {
+				int bitCount = Long.bitCount(words[i]);
+				if (rank < bitCount) {
+					long word = words[i];
+					for (int j = 0; j < rank; j++) {
+						word &= word - 1;
+					}
+					return (i << 6) + Long.numberOfTrailingZeros(word);
+				}
+				rank -= bitCount;
+			}
+			return -1;
+		}
+
+		@Override
+		protected Group copy() {
+			return new BitmapGroup(words.clone(), cardinality);
+		}
+
+		@Override
+		protected Group and(Group other) {
+			if (other instanceof ArrayGroup) {
+				return other.and(this);
+			}
+
+			long[] otherWords = ((BitmapGroup) other).words;
+			long[] result = new long[NO_WORDS];
+			int resultCardinality = 0;
+			for (int i = 0; i < NO_WORDS; i++) {
+				result[i] = words[i] & otherWords[i];
+				resultCardinality += Long.bitCount(result[i]);
+			}
+			return normalize(result, resultCardinality);
+		}
+
+		@Override
+		protected Group or(Group other) {
+			long[] otherWords = other.toBitmapGroup().words;
+			long[] result = new long[NO_WORDS];
+			int resultCardinality = 0;
+			for (int i = 0; i < NO_WORDS; i++) {
+				result[i] = words[i] | otherWords[i];
+				resultCardinality += Long.bitCount(result[i]);
+			}
+			return new BitmapGroup(result, resultCardinality);
+		}
+
+		@Override
+		protected Group andNot(Group other) {
+			long[] otherWords = other.toBitmapGroup().words;
+			long[] result = new long[NO_WORDS];
+			int resultCardinality = 0;
+			for (int i = 0; i < NO_WORDS; i++) {
+				result[i] = words[i] & ~otherWords[i];
+				resultCardinality += Long.bitCount(result[i]);
+			}
+			return normalize(result, resultCardinality);
+		}
+
+		@Override
+		protected long getNoBytes() {
+			return 24 + NO_WORDS * 8;
+		}
+
+		@Override
+		protected void write(ObjectOutputStream out) throws IOException {
+			out.writeBoolean(true);
+			out.writeInt(cardinality);
+			for (int i = 0; i < NO_WORDS; i++) {
+				out.writeLong(words[i]);
+			}
+		}
+
+		/**
+		 * @methodtype factory
+		 */
+		protected static BitmapGroup read(ObjectInputStream in) throws IOException {
+			int cardinality = in.readInt();
+			long[] words = new long[NO_WORDS];
+			for (int i = 0; i < NO_WORDS; i++) {
+				words[i] = in.readLong();
+			}
+			return new BitmapGroup(words, cardinality);
+		}
+
+		@Override
+		protected BitmapGroup toBitmapGroup() {
+			return this;
+		}
+
+		/**
+		 * @methodtype conversion
+		 */
+		protected ArrayGroup toArrayGroup() {
+			char[] values = new char[Math.max(cardinality, 1)];
+			int noValues = 0;
+			for (int value = nextValue(0); value >= 0; value = nextValue(value + 1)) {
+				values[noValues++] = (char) value;
+			}
+			return new ArrayGroup(values, noValues);
+		}
+
+		/**
+		 * @methodtype factory
+		 */
+		protected static Group normalize(long[] words, int cardinality) {
+			BitmapGroup result = new BitmapGroup(words, cardinality);
+			return (cardinality <= MAX_ARRAY_SIZE) ? result.toArrayGroup() : result;
+		}
+
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the {@link FilterResultCache}.
+ */
+public class FilterResultCacheTest {
+
+	@Rule
+	public final PhotoProvider photoProvider = new PhotoProvider();
+
+	private TagIndex tagIndex;
+	private FilterResultCache filterResultCache;
+
+	@Before
+	public void setUp() {
+		tagIndex = new TagIndex(new PhotoTagCollector());
+		filterResultCache = new FilterResultCache(tagIndex);
+	}
+
+	@Test
+	public void testNormalizesConditions() {
+		assertEquals(Arrays.asList("tg:sea", "tg:sky"),
+				filterResultCache.asNormalizedConditions(Arrays.asList("tg:sky", "tg:sea", "tg:sky")));
+		assertEquals(Collections.singletonList(TagIndex.ALL_PHOTOS),
+				filterResultCache.asNormalizedConditions(Collections.<String>emptyList()));
+	}
+
+	@Test
+	public void testDropsChangedResults() {
+		List<String> sea = Collections.singletonList("tg:sea");
+		List<String> land = Collections.singletonList("tg:land");
+		IntBitmap seaResult = new IntBitmap();
+		IntBitmap landResult = new IntBitmap();
+		filterResultCache.results.put(sea, seaResult);
+		filterResultCache.results.put(land, landResult);
+
+		Photo photo = photoProvider.createPhoto(21, "alice", "sky, sea");
+		tagIndex.updatePhoto(photo);
+		filterResultCache.updatePhoto(photo);
+
+		assertFalse(filterResultCache.results.containsKey(sea));
+		assertTrue(seaResult.isEmpty());
+		assertSame(landResult, filterResultCache.getPhotoIds(land));
+
+		IntBitmap visibleSeaResult = IntBitmap.valueOf(21);
+		filterResultCache.results.put(sea, visibleSeaResult);
+		filterResultCache.updatePhoto(photo);
+		assertSame(visibleSeaResult, filterResultCache.results.get(sea));
+
+		photo.setStatus(PhotoStatus.INVISIBLE);
+		tagIndex.updatePhoto(photo);
+		filterResultCache.updatePhoto(photo);
+
+		assertFalse(filterResultCache.results.containsKey(sea));
+		assertEquals(IntBitmap.valueOf(21), visibleSeaResult);
+		assertSame(landResult, filterResultCache.getPhotoIds(land));
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedResult() {
+		IntBitmap seaResult = new IntBitmap();
+		filterResultCache.setMaxNoResults(2);
+		filterResultCache.results.put(Collections.singletonList("tg:sea"), seaResult);
+		filterResultCache.results.put(Collections.singletonList("tg:land"), new IntBitmap());
+
+		assertSame(seaResult, filterResultCache.getPhotoIds(Collections.singletonList("tg:sea")));
+		filterResultCache.results.put(Collections.singletonList("tg:sky"), new IntBitmap());
+
+		assertEquals(2, filterResultCache.getNoResults());
+		assertTrue(filterResultCache.results.containsKey(Collections.singletonList("tg:sea")));
+		assertFalse(filterResultCache.results.containsKey(Collections.singletonList("tg:land")));
+	}
+
+	@Test
+	public void testSettersUpdateIndexAndResultsOfCachedPhoto() {
+		TagIndex managerTagIndex = PhotoManager.getInstance().getTagIndex();
+		FilterResultCache managerResults = PhotoManager.getInstance().getFilterResultCache();
+		List<String> sky = Collections.singletonList("tg:sky");
+		List<String> sea = Collections.singletonList("tg:sea");
+		Photo photo = photoProvider.createPhoto(90021, "frank", "sky");
+		photoProvider.addCachedPhoto(photo);
+
+		IntBitmap skyResult = managerResults.getPhotoIds(sky);
+		assertTrue(skyResult.contains(90021));
+
+		photo.setTags(new Tags("sea"));
+
+		assertFalse(managerTagIndex.getPhotoIds("tg:sky").contains(90021));
+		assertTrue(managerTagIndex.getPhotoIds("tg:sea").contains(90021));
+		assertFalse(managerResults.getPhotoIds(sky).contains(90021));
+		assertTrue(managerResults.getPhotoIds(sea).contains(90021));
+		assertTrue(skyResult.contains(90021));
+
+		photo.setStatus(PhotoStatus.INVISIBLE);
+
+		assertFalse(PhotoManager.getInstance().isVisiblePhoto(90021));
+		assertFalse(managerResults.getPhotoIds(sea).contains(90021));
+
+		photo.setOwnerId("grace");
+
+		assertFalse(managerTagIndex.getPhotoIds("un:frank").contains(90021));
+		assertTrue(managerTagIndex.getPhotoIds("un:grace").contains(90021));
+
+		Photo uncachedPhoto = photoProvider.createPhoto(90022, "heidi", "sky");
+		uncachedPhoto.setStatus(PhotoStatus.INVISIBLE);
+
+		assertFalse(managerTagIndex.getPhotoIds("un:heidi").contains(90022));
+	}
+
+}
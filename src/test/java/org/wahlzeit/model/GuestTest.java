@@ -48,7 +48,7 @@ public class GuestTest {
 		Guest testGuest = ObjectifyService.run(new Work<Guest>() {
 			@Override
 			public Guest run() {
-				return new Guest();
+				return Guest.createGuest();
 			}
 		});
 		String userName = testGuest.getId();
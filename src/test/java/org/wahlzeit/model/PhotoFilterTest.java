@@ -21,9 +21,15 @@ package org.wahlzeit.model;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class PhotoFilterTest {
@@ -46,8 +52,7 @@ public class PhotoFilterTest {
 		assertEquals("", photoFilter.userName);
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.tags);
 
-		assertEquals(0, photoFilter.processedPhotoIds.size());
-		assertEquals(0, photoFilter.displayablePhotoIds.size());
+		assertEquals(0, photoFilter.processedPhotoIds.getCardinality());
 	}
 
 	/**
@@ -70,18 +75,102 @@ public class PhotoFilterTest {
 		photoFilter.setTags(new Tags("test"));
 		assertEquals("test", photoFilter.getTags().asString());
 
-		photoFilter.displayablePhotoIds.add(new PhotoId(3));
-		assertTrue(photoFilter.displayablePhotoIds.size() == 1);
-
-		photoFilter.processedPhotoIds.add(new PhotoId(2));
-		assertTrue(photoFilter.processedPhotoIds.size() == 1);
+		photoFilter.processedPhotoIds.add(2);
+		assertTrue(photoFilter.processedPhotoIds.getCardinality() == 1);
 
 		photoFilter.clear();
 
 		assertEquals("", photoFilter.getUserName());
 		assertEquals(Tags.EMPTY_TAGS, photoFilter.getTags());
-		assertTrue(photoFilter.displayablePhotoIds.isEmpty());
 		assertTrue(photoFilter.processedPhotoIds.isEmpty());
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testDrawDisplayablePhotoIdIsUniform() {
+		PhotoFilter filter = new PhotoFilter();
+		filter.processedPhotoIds.add(0);
+		filter.skippedPhotoIds.add(1);
+
+		IntBitmap photoIds = IntBitmap.valueOf(0, 1, 2, 3, 4, 5);
+		int[] counts = new int[6];
+		for (int i = 0; i < 4000; i++) {
+			int id = filter.drawDisplayablePhotoId(photoIds);
+			assertTrue(id >= 0);
+			counts[id]++;
+		}
+
+		assertEquals(0, counts[0]);
+		assertEquals(0, counts[1]);
+		for (int id = 2; id < 6; id++) {
+			assertFalse("photo " + id + " drawn " + counts[id] + " times", counts[id] < 800 || counts[id] > 1200);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomDisplayablePhotoIdSelectsFromRemainingPhotos() {
+		PhotoFilter filter = new PhotoFilter() {
+			@Override
+			protected IntBitmap getMatchingPhotoIds(List<String> filterConditions) {
+				return IntBitmap.valueOf(10, 11, 12, 13, 14, 15);
+			}
+		};
+		filter.processedPhotoIds.add(10);
+		filter.processedPhotoIds.add(11);
+		filter.processedPhotoIds.add(12);
+		filter.skippedPhotoIds.add(13);
+
+		int[] counts = new int[16];
+		for (int i = 0; i < 2000; i++) {
+			counts[filter.getRandomDisplayablePhotoId().asInt()]++;
+		}
+		assertEquals(2000, counts[14] + counts[15]);
+		assertFalse(counts[14] < 800 || counts[15] < 800);
+
+		filter.processedPhotoIds.add(14);
+		filter.processedPhotoIds.add(15);
+		assertEquals(13, filter.getRandomDisplayablePhotoId().asInt());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCandidatesFollowProcessedUploadedAndHiddenPhotos() {
+		final IntBitmap matchingPhotoIds = IntBitmap.valueOf(20, 21, 22, 23, 24, 25);
+		PhotoFilter filter = new PhotoFilter() {
+			@Override
+			protected IntBitmap getMatchingPhotoIds(List<String> filterConditions) {
+				return matchingPhotoIds;
+			}
+		};
+		filter.processedPhotoIds.add(20);
+		filter.processedPhotoIds.add(21);
+		filter.processedPhotoIds.add(22);
+		filter.processedPhotoIds.add(23);
+
+		int id = filter.getRandomDisplayablePhotoId().asInt();
+		assertTrue(id == 24 || id == 25);
+		IntBitmap candidatePhotoIds = filter.candidatePhotoIds;
+		assertEquals(IntBitmap.valueOf(24, 25), candidatePhotoIds);
+
+		filter.addSkippedPhotoId(PhotoId.getIdFromInt(24));
+		matchingPhotoIds.add(26);
+		matchingPhotoIds.remove(25);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(26, filter.getRandomDisplayablePhotoId().asInt());
+		}
+		assertSame(candidatePhotoIds, filter.candidatePhotoIds);
+		assertEquals(IntBitmap.valueOf(26), candidatePhotoIds);
+
+		filter.setTags(new Tags("sky"));
+		filter.getRandomDisplayablePhotoId();
+		assertNotSame(candidatePhotoIds, filter.candidatePhotoIds);
+	}
+
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the {@link PhotoId}.
+ */
+public class PhotoIdTest {
+
+	@Test
+	public void testIdsAreInterned() {
+		assertSame(PhotoId.getIdFromInt(17), PhotoId.getIdFromInt(17));
+		assertSame(PhotoId.NULL_ID, PhotoId.getIdFromInt(0));
+		assertSame(PhotoId.NULL_ID, PhotoId.getIdFromInt(-5));
+		assertTrue(PhotoId.getIdFromInt(0).isNullId());
+	}
+
+	@Test
+	public void testIdsInDistantSegments() {
+		int id = (3 << (2 * PhotoId.SEGMENT_SHIFT)) + 5;
+
+		PhotoId photoId = PhotoId.getIdFromInt(id);
+
+		assertEquals(id, photoId.asInt());
+		assertSame(photoId, PhotoId.getIdFromInt(id));
+	}
+
+	@Test
+	public void testStringRoundTrip() {
+		for (int id = 1; id < 5000; id += 7) {
+			PhotoId photoId = PhotoId.getIdFromInt(id);
+			assertEquals(id, PhotoId.getFromString(photoId.asString()));
+			assertSame(photoId, PhotoId.getIdFromString(photoId.asString()));
+		}
+	}
+
+	@Test
+	public void testConcurrentInterningYieldsOneInstance() throws InterruptedException {
+		final int id = 123457;
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<PhotoId> results = new ArrayList<PhotoId>();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException ex) {
+						return;
+					}
+					PhotoId result = PhotoId.getIdFromInt(id);
+					synchronized (results) {
+						results.add(result);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(8, results.size());
+		for (PhotoId result : results) {
+			assertSame(results.get(0), result);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.rules.ExternalResource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule that provides an environment to create photos in, and photos created through their setters. Lives next to
+ * the model, as it adds photos to the cache of the <code>PhotoManager</code> and removes them again afterwards.
+ */
+public class PhotoProvider extends ExternalResource {
+
+	/**
+	 * No services are needed, only an environment to create the keys of photos
+	 */
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+	/**
+	 * Photos added to the cache of the PhotoManager, to be removed after the test
+	 */
+	private final List<Photo> cachedPhotos = new ArrayList<Photo>();
+
+	@Override
+	protected void before() throws Throwable {
+		helper.setUp();
+	}
+
+	@Override
+	protected void after() {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		for (Photo photo : cachedPhotos) {
+			photo.setListener(null);
+			if (photoManager.photoCache.remove(photo.getId().asInt()) == photo) {
+				photoManager.getTagIndex().removePhoto(photo);
+			}
+		}
+		if (!cachedPhotos.isEmpty()) {
+			photoManager.getFilterResultCache().clear();
+		}
+		cachedPhotos.clear();
+		helper.tearDown();
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public Photo createPhoto(int id) {
+		return new Photo(PhotoId.getIdFromInt(id));
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * The PhotoManager only listens to the setters of photos in its cache, so the photo is not indexed yet.
+	 */
+	public Photo createPhoto(int id, String ownerId, String tags) {
+		Photo result = createPhoto(id);
+		result.setOwnerId(ownerId);
+		result.setTags(new Tags(tags));
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the photo to the cache of the PhotoManager, which then listens to its setters to update the index and the
+	 * filter results.
+	 */
+	public void addCachedPhoto(Photo photo) {
+		PhotoManager.getInstance().doAddPhoto(photo);
+		cachedPhotos.add(photo);
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the {@link PhotoRegistry}.
+ */
+public class PhotoRegistryTest {
+
+	@Rule
+	public final PhotoProvider photoProvider = new PhotoProvider();
+
+	private PhotoRegistry registry;
+
+	@Before
+	public void setUp() {
+		registry = new PhotoRegistry();
+	}
+
+	@Test
+	public void testPutAndGet() {
+		Photo photo = photoProvider.createPhoto(42);
+
+		assertNull(registry.put(photo));
+
+		assertSame(photo, registry.get(42));
+		assertNull(registry.get(41));
+		assertNull(registry.get(-1));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testPutIfAbsentKeepsFirstPhoto() {
+		Photo first = photoProvider.createPhoto(7);
+		Photo second = photoProvider.createPhoto(7);
+
+		assertSame(first, registry.putIfAbsent(first));
+		assertSame(first, registry.putIfAbsent(second));
+		assertSame(first, registry.get(7));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testGrowsBeyondInitialChunks() {
+		int id = PhotoRegistry.INITIAL_NO_CHUNKS * PhotoRegistry.CHUNK_SIZE + 3;
+		Photo photo = photoProvider.createPhoto(id);
+
+		registry.put(photo);
+
+		assertSame(photo, registry.get(id));
+		assertTrue(registry.getIdLimit() > id);
+	}
+
+	@Test
+	public void testScanInIdOrder() {
+		int[] ids = {3, 1, PhotoRegistry.CHUNK_SIZE * 5 + 1, PhotoRegistry.CHUNK_SIZE};
+		for (int id : ids) {
+			registry.put(photoProvider.createPhoto(id));
+		}
+
+		assertEquals(1, registry.getNextId(0));
+		assertEquals(3, registry.getNextId(2));
+		assertEquals(PhotoRegistry.CHUNK_SIZE, registry.getNextId(4));
+		assertEquals(PhotoRegistry.CHUNK_SIZE * 5 + 1, registry.getNextId(PhotoRegistry.CHUNK_SIZE + 1));
+		assertEquals(-1, registry.getNextId(PhotoRegistry.CHUNK_SIZE * 5 + 2));
+
+		List<Integer> scannedIds = new ArrayList<Integer>();
+		for (Photo photo : registry.values()) {
+			scannedIds.add(photo.getId().asInt());
+		}
+		assertEquals(4, scannedIds.size());
+		assertEquals(Integer.valueOf(1), scannedIds.get(0));
+		assertEquals(Integer.valueOf(PhotoRegistry.CHUNK_SIZE * 5 + 1), scannedIds.get(3));
+	}
+
+	@Test
+	public void testRemove() {
+		registry.put(photoProvider.createPhoto(5));
+		registry.put(photoProvider.createPhoto(6));
+
+		assertEquals(5, registry.remove(5).getId().asInt());
+		assertNull(registry.remove(5));
+
+		assertFalse(registry.contains(5));
+		assertEquals(1, registry.size());
+		assertEquals(6, registry.getNextId(0));
+	}
+
+	@Test
+	public void testMapView() {
+		Photo photo = photoProvider.createPhoto(9);
+		Map<PhotoId, Photo> map = registry.asMap();
+
+		map.put(photo.getId(), photo);
+
+		assertSame(photo, map.get(PhotoId.getIdFromInt(9)));
+		assertTrue(map.containsKey(PhotoId.getIdFromInt(9)));
+		assertTrue(map.keySet().contains(PhotoId.getIdFromInt(9)));
+		assertEquals(1, map.size());
+
+		Iterator<PhotoId> ids = map.keySet().iterator();
+		assertEquals(9, ids.next().asInt());
+		ids.remove();
+		assertFalse(ids.hasNext());
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void testTracksVisibility() {
+		Photo visible = photoProvider.createPhoto(3);
+		Photo invisible = photoProvider.createPhoto(70);
+		invisible.setStatus(PhotoStatus.FLAGGED);
+		registry.put(visible);
+		registry.putIfAbsent(invisible);
+		registry.put(photoProvider.createPhoto(5000));
+
+		assertTrue(registry.isVisible(3));
+		assertFalse(registry.isVisible(70));
+		assertFalse(registry.isVisible(4));
+		assertEquals(IntBitmap.valueOf(3, 5000), registry.getVisibleIds());
+
+		visible.setStatus(PhotoStatus.MODERATED);
+		registry.updateVisibility(visible);
+		invisible.setStatus(PhotoStatus.VISIBLE);
+		registry.updateVisibility(invisible);
+		registry.remove(5000);
+
+		assertEquals(70, registry.getNextVisibleId(0));
+		assertEquals(-1, registry.getNextVisibleId(71));
+		assertEquals(IntBitmap.valueOf(70), registry.getVisibleIds());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMapViewRejectsWrongKey() {
+		registry.asMap().put(PhotoId.getIdFromInt(1), photoProvider.createPhoto(2));
+	}
+
+}
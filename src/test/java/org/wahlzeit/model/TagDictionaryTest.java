@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the {@link TagDictionary}.
+ */
+public class TagDictionaryTest {
+
+	private TagDictionary dictionary;
+
+	@Before
+	public void setUp() {
+		dictionary = new TagDictionary();
+		dictionary.setCount("flower", 5);
+		dictionary.setCount("flowers", 2);
+		dictionary.setCount("flow", 5);
+		dictionary.setCount("fly", 9);
+		dictionary.setCount("sky", 3);
+	}
+
+	@Test
+	public void testCounts() {
+		assertEquals(5, dictionary.getNoTags());
+		assertEquals(5, dictionary.getCount("flower"));
+		assertEquals(5, dictionary.getCount("flow"));
+		assertEquals(0, dictionary.getCount("flo"));
+		assertEquals(0, dictionary.getCount("flowerpot"));
+	}
+
+	@Test
+	public void testCompletionsByPopularity() {
+		assertEquals(Arrays.asList("fly", "flow", "flower", "flowers"), dictionary.getCompletions("f", 10));
+		assertEquals(Arrays.asList("fly", "flow"), dictionary.getCompletions("fl", 2));
+		assertEquals(Arrays.asList("flow", "flower", "flowers"), dictionary.getCompletions("flo", 10));
+		assertEquals(Arrays.asList("flower", "flowers"), dictionary.getCompletions("flowe", 10));
+		assertEquals(Arrays.asList("fly", "flow", "flower"), dictionary.getCompletions("", 3));
+		assertTrue(dictionary.getCompletions("flz", 10).isEmpty());
+		assertTrue(dictionary.getCompletions("flowerpot", 10).isEmpty());
+	}
+
+	@Test
+	public void testUpdatesAndRemovals() {
+		dictionary.setCount("flowers", 7);
+		assertEquals(Arrays.asList("flowers", "flow"), dictionary.getCompletions("flo", 2));
+
+		dictionary.setCount("flower", 0);
+		dictionary.setCount("fly", 0);
+		dictionary.setCount("flo", 0);
+		assertEquals(3, dictionary.getNoTags());
+		assertEquals(7, dictionary.getCount("flowers"));
+		assertEquals(Arrays.asList("flowers", "flow"), dictionary.getCompletions("f", 10));
+
+		dictionary.setCount("flowers", 0);
+		dictionary.setCount("flow", 0);
+		assertEquals(Collections.singletonList("sky"), dictionary.getCompletions("", 10));
+		assertEquals(0, dictionary.root.children[0].children.length);
+	}
+
+}
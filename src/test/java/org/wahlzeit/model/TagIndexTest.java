@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the {@link TagIndex}.
+ */
+public class TagIndexTest {
+
+	@Rule
+	public final PhotoProvider photoProvider = new PhotoProvider();
+
+	private TagIndex tagIndex;
+
+	@Before
+	public void setUp() {
+		tagIndex = new TagIndex(new PhotoTagCollector());
+	}
+
+	@Test
+	public void testIndexesOwnerAndTags() {
+		Photo photo = photoProvider.createPhoto(11, "alice", "sky, sea");
+
+		tagIndex.updatePhoto(photo);
+
+		assertEquals(IntBitmap.valueOf(11), tagIndex.getPhotoIds("un:alice"));
+		assertEquals(IntBitmap.valueOf(11), tagIndex.getPhotoIds("tg:alice"));
+		assertEquals(IntBitmap.valueOf(11), tagIndex.getPhotoIds("tg:sky"));
+		assertEquals(IntBitmap.valueOf(11), tagIndex.getPhotoIds("tg:sea"));
+		assertTrue(tagIndex.getPhotoIds("tg:land").isEmpty());
+	}
+
+	@Test
+	public void testUpdateByDiff() {
+		Photo photo = photoProvider.createPhoto(12, "bob", "sky, sea");
+		tagIndex.updatePhoto(photo);
+		IntBitmap skySnapshot = tagIndex.getPhotoIds("tg:sky");
+
+		photo.tags = new Tags("sea, land");
+		tagIndex.updatePhoto(photo);
+
+		assertTrue(tagIndex.getPhotoIds("tg:sky").isEmpty());
+		assertEquals(IntBitmap.valueOf(12), tagIndex.getPhotoIds("tg:sea"));
+		assertEquals(IntBitmap.valueOf(12), tagIndex.getPhotoIds("tg:land"));
+		// snapshots handed out before are not modified
+		assertEquals(IntBitmap.valueOf(12), skySnapshot);
+	}
+
+	@Test
+	public void testBatchUpdate() {
+		Photo first = photoProvider.createPhoto(13, "carol", "sky");
+		Photo second = photoProvider.createPhoto(70013, "dave", "sky");
+
+		tagIndex.updatePhotos(Arrays.asList(first, second));
+
+		assertEquals(IntBitmap.valueOf(13, 70013), tagIndex.getPhotoIds("tg:sky"));
+		assertEquals(1, tagIndex.getNoPhotoIds("un:dave"));
+	}
+
+	@Test
+	public void testDeletedPhotosAreNotIndexed() {
+		Photo photo = photoProvider.createPhoto(14, "erin", "sky");
+		tagIndex.updatePhoto(photo);
+
+		photo.setStatus(PhotoStatus.DELETED);
+		tagIndex.updatePhoto(photo);
+
+		assertTrue(tagIndex.getPhotoIds("tg:sky").isEmpty());
+		assertFalse(tagIndex.getPhotoIds("un:erin").contains(14));
+		assertEquals(0, tagIndex.getNoConditions());
+	}
+
+	@Test
+	public void testDictionaryCountsOnlyVisiblePhotos() {
+		Photo visible = photoProvider.createPhoto(15, "frank", "sky");
+		Photo hidden = photoProvider.createPhoto(16, "grace", "sky, sea");
+		tagIndex.updatePhotos(Arrays.asList(visible, hidden));
+		assertEquals(2, tagIndex.getTagDictionary().getCount("sky"));
+
+		hidden.setStatus(PhotoStatus.FLAGGED);
+		tagIndex.updatePhoto(hidden);
+
+		assertEquals(IntBitmap.valueOf(15, 16), tagIndex.getPhotoIds("tg:sky"));
+		assertEquals(1, tagIndex.getTagDictionary().getCount("sky"));
+		assertEquals(0, tagIndex.getTagDictionary().getCount("sea"));
+
+		hidden.setStatus(PhotoStatus.VISIBLE);
+		tagIndex.updatePhoto(hidden);
+		tagIndex.removePhoto(visible);
+
+		assertEquals(1, tagIndex.getTagDictionary().getCount("sky"));
+		assertEquals(1, tagIndex.getTagDictionary().getCount("sea"));
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.wahlzeit.utils.IntBitmap;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the {@link TagQuery}.
+ */
+public class TagQueryTest {
+
+	@Rule
+	public final PhotoProvider photoProvider = new PhotoProvider();
+
+	private TagIndex tagIndex;
+
+	@Before
+	public void setUp() {
+		tagIndex = new TagIndex(new PhotoTagCollector());
+		tagIndex.updatePhotos(Arrays.asList(
+				photoProvider.createPhoto(1, "alice", "sky, sea"),
+				photoProvider.createPhoto(2, "alice", "sky"),
+				photoProvider.createPhoto(3, "bob", "sea"),
+				photoProvider.createPhoto(4, "bob", "sky, sea, night")));
+	}
+
+	@Test
+	public void testAnd() {
+		TagQuery query = TagQuery.and(TagQuery.condition("tg:sky"), TagQuery.condition("tg:sea"));
+
+		assertEquals(IntBitmap.valueOf(1, 4), query.evaluate(tagIndex));
+	}
+
+	@Test
+	public void testOrIsDeduplicated() {
+		TagQuery query = TagQuery.or(TagQuery.condition("tg:sky"), TagQuery.condition("tg:sea"));
+
+		assertEquals(IntBitmap.valueOf(1, 2, 3, 4), query.evaluate(tagIndex));
+	}
+
+	@Test
+	public void testNot() {
+		TagQuery query = TagQuery.and(TagQuery.condition("tg:sea"), TagQuery.not(TagQuery.condition("tg:night")));
+
+		assertEquals(IntBitmap.valueOf(1, 3), query.evaluate(tagIndex));
+		assertEquals(IntBitmap.valueOf(1, 2, 3), TagQuery.not(TagQuery.condition("tg:night")).evaluate(tagIndex));
+	}
+
+	@Test
+	public void testNested() {
+		TagQuery query = TagQuery.and(
+				TagQuery.condition("un:bob"),
+				TagQuery.or(TagQuery.condition("tg:sky"), TagQuery.condition("tg:alice")));
+
+		assertEquals(IntBitmap.valueOf(4), query.evaluate(tagIndex));
+	}
+
+	@Test
+	public void testUnknownConditionMatchesNothing() {
+		TagQuery query = TagQuery.and(TagQuery.condition("tg:sky"), TagQuery.condition("tg:unknown"));
+
+		assertEquals(new IntBitmap(), query.evaluate(tagIndex));
+		assertEquals(0, query.estimateSize(tagIndex));
+	}
+
+	@Test
+	public void testAllOf() {
+		assertEquals(IntBitmap.valueOf(1, 2), TagQuery.allOf(Arrays.asList("un:alice", "tg:sky")).evaluate(tagIndex));
+		assertEquals(IntBitmap.valueOf(1, 2, 3, 4), TagQuery.allOf(Collections.<String>emptyList()).evaluate(tagIndex));
+	}
+
+}
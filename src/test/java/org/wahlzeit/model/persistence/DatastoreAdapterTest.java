@@ -2,16 +2,23 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Work;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.RuleChain;
 import org.junit.rules.TestRule;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
 import org.wahlzeit.testEnvironmentProvider.RegisteredOfyEnvironmentProvider;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -26,6 +33,7 @@ public class DatastoreAdapterTest extends AbstractAdapterTest {
 			outerRule(new LocalDatastoreServiceTestConfigProvider()).
 			around(new RegisteredOfyEnvironmentProvider());
 
+	private Image chunkedTestImage;
 	private Image tooLargeTestImage;
 
 
@@ -33,10 +41,46 @@ public class DatastoreAdapterTest extends AbstractAdapterTest {
 	protected void storageDependentSetUp() {
 		imageStorage = new DatastoreAdapter();
 
-		ByteBuffer bb = ByteBuffer.allocate(1024 * 1025);
+		byte[] data = new byte[1024 * 1025 * 3];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		chunkedTestImage = ImagesServiceFactory.makeImage(data);
+
+		ByteBuffer bb = ByteBuffer.allocate(DatastoreAdapter.ImageWrapper.chunkSize *
+				DatastoreAdapter.ImageWrapper.maxNoChunks + 1);
 		tooLargeTestImage = ImagesServiceFactory.makeImage(bb.array());
 	}
 
+	@Test
+	public void testChunkedImage() {
+		try {
+			imageStorage.writeImage(chunkedTestImage, "blub", 1);
+			Image result = (Image) imageStorage.readImage("blub", 1);
+			assertArrayEquals(chunkedTestImage.getImageData(), result.getImageData());
+
+			imageStorage.writeImage(smallTestImage, "blub", 1);
+			result = (Image) imageStorage.readImage("blub", 1);
+			assertArrayEquals(smallTestImage.getImageData(), result.getImageData());
+			assertTrue(getChunkKeys("blub1").isEmpty());
+		} catch (IOException e) {
+			fail("IOException should not be thrown!");
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected List<Key<DatastoreAdapter.ImageChunk>> getChunkKeys(final String imageId) {
+		return ObjectifyService.run(new Work<List<Key<DatastoreAdapter.ImageChunk>>>() {
+			@Override
+			public List<Key<DatastoreAdapter.ImageChunk>> run() {
+				return OfyService.ofy().load().type(DatastoreAdapter.ImageChunk.class).
+						ancestor(Key.create(DatastoreAdapter.ImageWrapper.class, imageId)).keys().list();
+			}
+		});
+	}
+
 
 	@Test(expected = ArrayIndexOutOfBoundsException.class)
 	public void testUpperSizeLimit() {
@@ -1,7 +1,17 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test cases for the Google Cloud Storage adapter.
@@ -21,4 +31,22 @@ public class GcsAdapterTest extends AbstractAdapterTest {
 	protected void storageDependentTearDown() {
 		helper.tearDown();
 	}
+
+	@Test
+	public void testExactSizeRead() throws IOException {
+		imageStorage.writeImage(smallTestImage, "blub", 1);
+		Image image = (Image) imageStorage.readImage("blub", 1);
+		assertEquals(smallTestImage.getImageData().length, image.getImageData().length);
+	}
+
+	@Test
+	public void testStreamImage() throws IOException {
+		imageStorage.writeImage(maxSizeTestImage, "blub", 1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(imageStorage.streamImage("blub", 1, out));
+		assertArrayEquals(maxSizeTestImage.getImageData(), out.toByteArray());
+
+		assertFalse(imageStorage.streamImage("blub", 2, new ByteArrayOutputStream()));
+	}
 }
@@ -0,0 +1,93 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the byte-weighted {@link ImageCache}.
+ */
+public class ImageCacheTest {
+
+	private static final int IMAGE_BYTES = 1024;
+
+	private ImageCache imageCache;
+	private Image testImage;
+
+	@Before
+	public void setUp() {
+		// each segment holds four images, three of them protected
+		imageCache = new ImageCache(ImageCache.NO_SEGMENTS * 4 * IMAGE_BYTES);
+		testImage = ImagesServiceFactory.makeImage(new byte[IMAGE_BYTES]);
+	}
+
+	@Test
+	public void testHitAndMissCounters() {
+		assertNull(imageCache.getCachedImage("x1", 1));
+		imageCache.putImage("x1", 1, testImage);
+		assertNotNull(imageCache.getCachedImage("x1", 1));
+
+		assertEquals(1, imageCache.getHitCount());
+		assertEquals(1, imageCache.getMissCount());
+		assertEquals(IMAGE_BYTES, imageCache.getNoBytes());
+	}
+
+	@Test
+	public void testByteBudgetIsNeverExceeded() {
+		for (int i = 0; i < 1000; i++) {
+			imageCache.putImage("x" + i, 1, testImage);
+		}
+
+		assertTrue(imageCache.getNoBytes() <= ImageCache.NO_SEGMENTS * 4 * IMAGE_BYTES);
+		assertEquals(1000 - imageCache.getNoImages(), imageCache.getEvictionCount());
+	}
+
+	@Test
+	public void testRequestedImagesSurviveScans() {
+		imageCache.putImage("hot", 1, testImage);
+		imageCache.getCachedImage("hot", 1);
+
+		for (int i = 0; i < 1000; i++) {
+			imageCache.putImage("cold" + i, 1, testImage);
+		}
+
+		assertNotNull(imageCache.getCachedImage("hot", 1));
+	}
+
+	@Test
+	public void testTooLargeImageIsNotCached() {
+		imageCache.setMaxBytes(ImageCache.NO_SEGMENTS * (IMAGE_BYTES - 1));
+		imageCache.putImage("x1", 1, testImage);
+
+		assertNull(imageCache.getCachedImage("x1", 1));
+		assertEquals(0, imageCache.getNoBytes());
+	}
+
+	@Test
+	public void testMissingImageIsRememberedUntilPut() {
+		final int[] noReads = {0};
+		imageCache = new ImageCache(ImageCache.NO_SEGMENTS * 4 * IMAGE_BYTES) {
+			@Override
+			protected Image readImage(String photoIdAsString, int size) {
+				noReads[0]++;
+				return null;
+			}
+		};
+
+		assertNull(imageCache.getImage("x1", 4));
+		assertNull(imageCache.getImage("x1", 4));
+		assertEquals(1, noReads[0]);
+
+		imageCache.putImage("x1", 4, testImage);
+		assertNotNull(imageCache.getImage("x1", 4));
+		imageCache.removeImage("x1", 4);
+		assertNull(imageCache.getImage("x1", 4));
+		assertEquals(2, noReads[0]);
+	}
+}
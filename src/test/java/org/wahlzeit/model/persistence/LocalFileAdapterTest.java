@@ -0,0 +1,50 @@
+package org.wahlzeit.model.persistence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the local file system adapter.
+ */
+public class LocalFileAdapterTest extends AbstractAdapterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			LocalFileAdapter.Builder builder = new LocalFileAdapter.Builder();
+			builder.setRootDirectory(folder.newFolder("photos").toPath());
+			imageStorage = builder.build();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testStreamImage() throws IOException {
+		imageStorage.writeImage(maxSizeTestImage, "blub", 1);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(imageStorage.streamImage("blub", 1, out));
+		assertArrayEquals(maxSizeTestImage.getImageData(), out.toByteArray());
+
+		assertFalse(imageStorage.streamImage("blub", 2, new ByteArrayOutputStream()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsNoShards() {
+		LocalFileAdapter.Builder builder = new LocalFileAdapter.Builder();
+		builder.setNoShards(0);
+		builder.build();
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the {@link IdSequence}.
+ */
+public class IdSequenceTest {
+
+	@Test
+	public void testLocalBlocksContinueAfterLastId() {
+		IdSequence sequence = new IdSequence(10);
+		sequence.reset(41, null);
+
+		assertEquals(42, sequence.getNextId());
+		assertEquals(43, sequence.getNextId());
+		assertEquals(43, sequence.getLastIssuedId());
+	}
+
+	@Test
+	public void testBlocksAreReservedFromSource() {
+		final AtomicInteger noReservations = new AtomicInteger(0);
+		IdSequence sequence = new IdSequence(10);
+		sequence.reset(0, new IdSequence.BlockSource() {
+			@Override
+			public long reserveBlock(int blockSize) {
+				// every other block is taken by another instance
+				return noReservations.getAndIncrement() * 2 * blockSize + 1;
+			}
+		});
+
+		for (int i = 1; i <= 10; i++) {
+			assertEquals(i, sequence.getNextId());
+		}
+		assertEquals(21, sequence.getNextId());
+		assertEquals(2, noReservations.get());
+	}
+
+	@Test
+	public void testConcurrentIdsAreUnique() throws InterruptedException {
+		final IdSequence sequence = new IdSequence(7);
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						ids.add(sequence.getNextId());
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(4000, ids.size());
+	}
+}
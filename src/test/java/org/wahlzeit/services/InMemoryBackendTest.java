@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the {@link InMemoryBackend}.
+ */
+public class InMemoryBackendTest {
+
+	/**
+	 * No services are needed, only an environment to create keys
+	 */
+	private final LocalServiceTestHelper helper = new LocalServiceTestHelper();
+
+	private InMemoryBackend backend;
+
+	@Before
+	public void setUp() {
+		helper.setUp();
+		backend = new InMemoryBackend();
+	}
+
+	@After
+	public void tearDown() {
+		helper.tearDown();
+	}
+
+	@Test
+	public void testWriteAllocatesIdsAndReads() {
+		Tag tag = new Tag("flower", "x1");
+		backend.write(tag);
+
+		List<Tag> tags = backend.readAll(Tag.class, ObjectManager.applicationRootKey);
+		assertEquals(1, tags.size());
+		assertEquals("flower", tags.get(0).getText());
+		assertNotNull(backend.read(Tag.class, 1L));
+	}
+
+	@Test
+	public void testStoresAndReturnsCopies() {
+		Tag tag = new Tag("flower", "x1");
+		backend.write(tag);
+		tag.setEntityGroupKey(KeyFactory.createKey("Application", "Other"));
+
+		Tag storedTag = backend.read(Tag.class, 1L);
+		assertNotSame(tag, storedTag);
+		assertEquals(ObjectManager.applicationRootKey, storedTag.getEntityGroupKey());
+
+		storedTag.setEntityGroupKey(KeyFactory.createKey("Application", "Other"));
+		assertEquals(ObjectManager.applicationRootKey, backend.read(Tag.class, 1L).getEntityGroupKey());
+	}
+
+	@Test
+	public void testQueryAndDeleteByProperty() {
+		backend.writeAll(Arrays.asList(new Tag("flower", "x1"), new Tag("tree", "x1"), new Tag("flower", "x2")));
+
+		assertEquals(2, backend.query(Tag.class, ObjectManager.applicationRootKey, Tag.TEXT, "flower").size());
+		assertNotNull(backend.readFirst(Tag.class, ObjectManager.applicationRootKey, Tag.PHOTO_ID, "x2"));
+
+		int noDeleted = backend.deleteAll(Tag.class, ObjectManager.applicationRootKey, Tag.PHOTO_ID,
+				Arrays.asList("x1"));
+		assertEquals(2, noDeleted);
+		assertNull(backend.readFirst(Tag.class, ObjectManager.applicationRootKey, Tag.PHOTO_ID, "x1"));
+
+		backend.write(new Tag("tree", "x1"));
+		assertEquals(1, backend.query(Tag.class, ObjectManager.applicationRootKey, Tag.PHOTO_ID, "x1").size());
+		assertEquals(1, backend.query(Tag.class, ObjectManager.applicationRootKey, Tag.TEXT, "flower").size());
+	}
+
+	@Test
+	public void testQueryIsRestrictedToAncestor() {
+		backend.write(new Tag("flower", "x1"));
+
+		assertTrue(backend.readAll(Tag.class, KeyFactory.createKey("Application", "Other")).isEmpty());
+	}
+
+	@Test
+	public void testReadPages() {
+		for (int i = 0; i < 25; i++) {
+			backend.write(new Tag("tag" + i, "x" + i));
+		}
+
+		List<Tag> result = new ArrayList<Tag>();
+		String cursor = null;
+		int noPages = 0;
+		do {
+			cursor = backend.readPage(result, Tag.class, ObjectManager.applicationRootKey, cursor, 10);
+			noPages++;
+		} while (cursor != null);
+
+		assertEquals(25, result.size());
+		assertEquals(3, noPages);
+	}
+}
@@ -36,7 +36,7 @@ public class UserSessionProvider extends ExternalResource {
 		String guestName = ObjectifyService.run(new Work<String>() {
 			@Override
 			public String run() {
-				Guest guest = new Guest();
+				Guest guest = Guest.createGuest();
 				guest.setLanguage(Language.ENGLISH);
 				return guest.getId();
 			}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the IntBitmap class.
+ */
+public class IntBitmapTest {
+
+	@Test
+	public void testAddContainsRemove() {
+		IntBitmap bitmap = new IntBitmap();
+
+		assertTrue(bitmap.add(5));
+		assertFalse(bitmap.add(5));
+		assertTrue(bitmap.add(70000));
+
+		assertTrue(bitmap.contains(5));
+		assertTrue(bitmap.contains(70000));
+		assertFalse(bitmap.contains(6));
+		assertFalse(bitmap.contains(-1));
+		assertEquals(2, bitmap.getCardinality());
+
+		assertTrue(bitmap.remove(5));
+		assertFalse(bitmap.remove(5));
+		assertEquals(1, bitmap.getCardinality());
+		assertArrayEquals(new int[]{70000}, bitmap.toArray());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsNegativeValues() {
+		new IntBitmap().add(-3);
+	}
+
+	@Test
+	public void testNextValueAndSelect() {
+		IntBitmap bitmap = IntBitmap.valueOf(3, 10, 65535, 65536, 200000);
+
+		assertEquals(3, bitmap.nextValue(0));
+		assertEquals(10, bitmap.nextValue(4));
+		assertEquals(65535, bitmap.nextValue(11));
+		assertEquals(65536, bitmap.nextValue(65536));
+		assertEquals(200000, bitmap.nextValue(65537));
+		assertEquals(-1, bitmap.nextValue(200001));
+
+		assertEquals(3, bitmap.select(0));
+		assertEquals(65536, bitmap.select(3));
+		assertEquals(200000, bitmap.select(4));
+		assertEquals(-1, bitmap.select(5));
+	}
+
+	@Test
+	public void testDenseGroups() {
+		IntBitmap bitmap = new IntBitmap();
+		for (int i = 0; i < 10000; i++) {
+			bitmap.add(i * 2);
+		}
+
+		assertEquals(10000, bitmap.getCardinality());
+		assertTrue(bitmap.contains(19998));
+		assertFalse(bitmap.contains(19999));
+		assertEquals(19998, bitmap.select(9999));
+		assertTrue(bitmap.getNoBytes() < 10000 * 2);
+
+		for (int i = 0; i < 9000; i++) {
+			bitmap.remove(i * 2);
+		}
+		assertEquals(1000, bitmap.getCardinality());
+		assertEquals(18000, bitmap.nextValue(0));
+	}
+
+	@Test
+	public void testSetOperationsMatchBitSet() {
+		Random random = new Random(42);
+		for (int round = 0; round < 20; round++) {
+			BitSet expectedA = new BitSet();
+			BitSet expectedB = new BitSet();
+			IntBitmap a = new IntBitmap();
+			IntBitmap b = new IntBitmap();
+			int range = (round % 2 == 0) ? 300000 : 20000;
+			for (int i = 0; i < 8000; i++) {
+				int value = random.nextInt(range);
+				expectedA.set(value);
+				a.add(value);
+				value = random.nextInt(range);
+				expectedB.set(value);
+				b.add(value);
+			}
+
+			BitSet expected = (BitSet) expectedA.clone();
+			expected.and(expectedB);
+			assertMatches(expected, IntBitmap.and(a, b));
+
+			expected = (BitSet) expectedA.clone();
+			expected.or(expectedB);
+			assertMatches(expected, IntBitmap.or(a, b));
+
+			expected = (BitSet) expectedA.clone();
+			expected.andNot(expectedB);
+			assertMatches(expected, IntBitmap.andNot(a, b));
+
+			assertMatches(expectedA, a);
+		}
+	}
+
+	@Test
+	public void testValueOfWordsMatchesBitSet() {
+		Random random = new Random(42);
+		BitSet expected = new BitSet();
+		for (int i = 0; i < 8000; i++) {
+			expected.set(random.nextInt(20000));
+			expected.set(100000 + random.nextInt(200000));
+		}
+
+		assertMatches(expected, IntBitmap.valueOfWords(expected.toLongArray()));
+		assertTrue(IntBitmap.valueOfWords(new long[3]).isEmpty());
+	}
+
+	@Test
+	public void testCopyIsIndependent() {
+		IntBitmap bitmap = IntBitmap.valueOf(1, 2, 3);
+		IntBitmap copy = bitmap.copy();
+
+		copy.add(4);
+		copy.remove(1);
+
+		assertEquals(IntBitmap.valueOf(1, 2, 3), bitmap);
+		assertEquals(IntBitmap.valueOf(2, 3, 4), copy);
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		IntBitmap bitmap = IntBitmap.valueOf(1, 70000);
+		for (int i = 0; i < 6000; i++) {
+			bitmap.add(200000 + i);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(bitmap);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		IntBitmap copy = (IntBitmap) in.readObject();
+
+		assertEquals(bitmap, copy);
+		assertEquals(6002, copy.getCardinality());
+		assertTrue(copy.add(5));
+		assertTrue(bytes.size() < 6000 * 2);
+	}
+
+	/**
+	 *
+	 */
+	protected void assertMatches(BitSet expected, IntBitmap actual) {
+		assertEquals(expected.cardinality(), actual.getCardinality());
+		int value = actual.nextValue(0);
+		for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+			assertEquals(i, value);
+			value = actual.nextValue(value + 1);
+		}
+		assertEquals(-1, value);
+	}
+
+}